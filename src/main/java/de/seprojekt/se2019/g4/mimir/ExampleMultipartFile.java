@@ -48,7 +48,7 @@ public class ExampleMultipartFile implements MultipartFile {
   @Override
   public long getSize() {
     try {
-      return classPathResource.getInputStream().readAllBytes().length;
+      return classPathResource.contentLength();
     } catch (IOException e) {
       e.printStackTrace();
     }
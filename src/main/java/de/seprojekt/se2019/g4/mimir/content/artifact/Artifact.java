@@ -8,24 +8,17 @@ import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 import de.seprojekt.se2019.g4.mimir.content.comment.Comment;
 import de.seprojekt.se2019.g4.mimir.content.folder.Folder;
 import de.seprojekt.se2019.g4.mimir.content.space.Space;
-import de.seprojekt.se2019.g4.mimir.content.thumbnail.Thumbnail;
 import java.time.Instant;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-import javax.persistence.Basic;
-import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
-import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
-import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
-import javax.persistence.OneToOne;
 import org.springframework.http.MediaType;
 
 /**
@@ -62,18 +55,12 @@ public class Artifact {
   private Long contentLength;
 
   @JsonIgnore
-  @Lob
-  @Basic(fetch = FetchType.LAZY)
-  private byte[] content;
+  @Column(length = 64)
+  private String contentHash;
 
   @Column(length = 512)
   private MediaType contentType;
 
-  @JsonIgnore
-  @OneToOne(cascade = CascadeType.ALL)
-  @JoinColumn(name = "thumbnail_id")
-  private Thumbnail thumbnail = new Thumbnail();
-
   @JsonIgnore
   @JoinColumn
   @ManyToOne
@@ -123,12 +110,12 @@ public class Artifact {
     this.contentLength = contentLength;
   }
 
-  public byte[] getContent() {
-    return content;
+  public String getContentHash() {
+    return contentHash;
   }
 
-  public void setContent(byte[] content) {
-    this.content = content;
+  public void setContentHash(String contentHash) {
+    this.contentHash = contentHash;
   }
 
   public MediaType getContentType() {
@@ -139,14 +126,6 @@ public class Artifact {
     this.contentType = contentType;
   }
 
-  public Thumbnail getThumbnail() {
-    return thumbnail;
-  }
-
-  public void setThumbnail(Thumbnail thumbnail) {
-    this.thumbnail = thumbnail;
-  }
-
   public Space getSpace() {
     return space;
   }
@@ -185,21 +164,17 @@ public class Artifact {
         name.equals(artifact.name) &&
         creationDate.equals(artifact.creationDate) &&
         contentLength.equals(artifact.contentLength) &&
-        Arrays.equals(content, artifact.content) &&
+        Objects.equals(contentHash, artifact.contentHash) &&
         contentType.equals(artifact.contentType) &&
-        thumbnail.equals(artifact.thumbnail) &&
         author.equals(artifact.author) &&
         Objects.equals(space, artifact.space);
   }
 
   @Override
   public int hashCode() {
-    int result = Objects
-        .hash(id, parentFolder, name, creationDate, contentLength, contentType,
-            thumbnail, author,
-            space);
-    result = 31 * result + Arrays.hashCode(content);
-    return result;
+    return Objects
+        .hash(id, parentFolder, name, creationDate, contentLength, contentHash, contentType,
+            author, space);
   }
 
   @Override
@@ -211,9 +186,8 @@ public class Artifact {
         ", author=" + author +
         ", creationDate=" + creationDate +
         ", contentLength=" + contentLength +
-        ", content=" + Arrays.toString(content) +
+        ", contentHash='" + contentHash + '\'' +
         ", contentType=" + contentType +
-        ", thumbnail=" + thumbnail +
         ", space=" + space +
         '}';
   }
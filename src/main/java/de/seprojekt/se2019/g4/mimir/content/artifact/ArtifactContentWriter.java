@@ -0,0 +1,268 @@
+package de.seprojekt.se2019.g4.mimir.content.artifact;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+/**
+ * This service writes the content of an artifact into an HTTP response. It supports conditional
+ * requests (If-None-Match) and byte range requests (Range, If-Range) with single and multiple
+ * ranges, so e.g. video players can seek and interrupted downloads can be resumed. Requests with
+ * more than 50 ranges get the whole content. The hash of the content is used as strong ETag. HEAD
+ * requests get the headers only, the content is not read.
+ *
+ * <p>If the servlet container supports it (Tomcat with sendfile enabled and the content is a
+ * local file), the content will be sent by the operating system without copying it through the
+ * JVM (zero-copy). Otherwise the content will be copied through a buffer. The metric
+ * artifact.transfers (tag 'path': sendfile or copy) shows which way was used.
+ */
+@Service
+public class ArtifactContentWriter {
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(ArtifactContentWriter.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String MULTIPART_BYTERANGES = "multipart/byteranges; boundary=";
+  // every range costs a part header and a seek, many ranges are cheaper as one response
+  private static final int MAX_RANGES = 50;
+
+  // request attributes of Tomcat for sending files with sendfile
+  static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+  static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+  // below this size the setup of sendfile costs more than copying (same value as Tomcat uses)
+  private static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+  private ArtifactService artifactService;
+  private Counter sendfileTransfers;
+  private Counter copyTransfers;
+  private Counter sendfileBytes;
+  private Counter copyBytes;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public ArtifactContentWriter(ArtifactService artifactService, MeterRegistry meterRegistry) {
+    this.artifactService = artifactService;
+    this.sendfileTransfers = meterRegistry.counter("artifact.transfers", "path", "sendfile");
+    this.copyTransfers = meterRegistry.counter("artifact.transfers", "path", "copy");
+    this.sendfileBytes = meterRegistry.counter("artifact.transfer.bytes", "path", "sendfile");
+    this.copyBytes = meterRegistry.counter("artifact.transfer.bytes", "path", "copy");
+  }
+
+  /**
+   * Write the content (or the requested ranges of the content) of the given artifact into the
+   * response.
+   *
+   * @param attachment if the browser should download the content instead of displaying it
+   */
+  public void write(Artifact artifact, boolean attachment, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    String eTag = "\"" + artifact.getContentHash() + "\"";
+    long contentLength = artifact.getContentLength();
+    response.setHeader(HttpHeaders.ETAG, eTag);
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    if (attachment) {
+      response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+          String.format("attachment; filename=\"%s\"", artifact.getName()));
+    }
+
+    if (matchesETag(request.getHeader(HttpHeaders.IF_NONE_MATCH), eTag)) {
+      response.setStatus(HttpStatus.NOT_MODIFIED.value());
+      return;
+    }
+
+    List<HttpRange> ranges = requestedRanges(request, eTag);
+    if (ranges.isEmpty() || ranges.size() > MAX_RANGES) {
+      response.setStatus(HttpStatus.OK.value());
+      response.setContentType(artifact.getContentType().toString());
+      transfer(artifact, 0, contentLength, request, response);
+      return;
+    }
+
+    List<long[]> satisfiableRanges = new ArrayList<>();
+    long requestedBytes = 0;
+    for (HttpRange range : ranges) {
+      long start = range.getRangeStart(contentLength);
+      long end = range.getRangeEnd(contentLength);
+      if (start < contentLength && start <= end) {
+        satisfiableRanges.add(new long[]{start, end});
+        requestedBytes += end - start + 1;
+      }
+    }
+    if (satisfiableRanges.isEmpty()) {
+      response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+      response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + contentLength);
+      return;
+    }
+    if (requestedBytes > contentLength) {
+      // overlapping ranges would let a small request cause a huge response - send everything once
+      response.setStatus(HttpStatus.OK.value());
+      response.setContentType(artifact.getContentType().toString());
+      transfer(artifact, 0, contentLength, request, response);
+      return;
+    }
+
+    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+    if (satisfiableRanges.size() == 1) {
+      long[] range = satisfiableRanges.get(0);
+      response.setContentType(artifact.getContentType().toString());
+      response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, contentLength));
+      transfer(artifact, range[0], range[1] - range[0] + 1, request, response);
+      return;
+    }
+
+    writeMultipleRanges(artifact, satisfiableRanges, request, response);
+  }
+
+  /**
+   * Write the given ranges as multipart/byteranges response (RFC 7233, section 4.1).
+   */
+  private void writeMultipleRanges(Artifact artifact, List<long[]> ranges,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String boundary = UUID.randomUUID().toString().replace("-", "");
+    long contentLength = artifact.getContentLength();
+
+    List<byte[]> partHeaders = new ArrayList<>();
+    long responseLength = 0;
+    for (long[] range : ranges) {
+      String partHeader = "\r\n--" + boundary + "\r\n"
+          + HttpHeaders.CONTENT_TYPE + ": " + artifact.getContentType() + "\r\n"
+          + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, contentLength) + "\r\n\r\n";
+      byte[] partHeaderBytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+      partHeaders.add(partHeaderBytes);
+      responseLength += partHeaderBytes.length + range[1] - range[0] + 1;
+    }
+    byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    responseLength += end.length;
+
+    response.setContentType(MULTIPART_BYTERANGES + boundary);
+    response.setContentLengthLong(responseLength);
+    if (HttpMethod.HEAD.matches(request.getMethod())) {
+      return;
+    }
+    OutputStream outputStream = response.getOutputStream();
+    for (int i = 0; i < ranges.size(); i++) {
+      long[] range = ranges.get(i);
+      outputStream.write(partHeaders.get(i));
+      writeRange(artifact, range[0], range[1] - range[0] + 1, outputStream);
+    }
+    outputStream.write(end);
+    copyTransfers.increment();
+    copyBytes.increment(responseLength);
+  }
+
+  /**
+   * Send length bytes starting at position of the artifact content as response body. Tomcat's
+   * sendfile will be used if possible, otherwise the content will be copied. HEAD requests only
+   * get the length.
+   */
+  private void transfer(Artifact artifact, long position, long length,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentLengthLong(length);
+    if (HttpMethod.HEAD.matches(request.getMethod())) {
+      return;
+    }
+    Optional<Path> file = Optional.empty();
+    if (length >= SENDFILE_THRESHOLD && HttpMethod.GET.matches(request.getMethod())
+        && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+      file = artifactService.findArtifactContentFile(artifact);
+    }
+
+    if (file.isPresent()) {
+      // Tomcat will send the file after the headers, the body must stay empty
+      request.setAttribute(SENDFILE_FILENAME, file.get().toString());
+      request.setAttribute(SENDFILE_START, position);
+      request.setAttribute(SENDFILE_END, position + length);
+      sendfileTransfers.increment();
+      sendfileBytes.increment(length);
+      LOGGER.debug("Sending artifact '{}' with sendfile", artifact.getId());
+      return;
+    }
+
+    writeRange(artifact, position, length, response.getOutputStream());
+    copyTransfers.increment();
+    copyBytes.increment(length);
+    LOGGER.debug("Sending artifact '{}' by copying", artifact.getId());
+  }
+
+  /**
+   * Copy length bytes starting at position of the artifact content into the output stream.
+   */
+  private void writeRange(Artifact artifact, long position, long length,
+      OutputStream outputStream) throws IOException {
+    try (SeekableByteChannel channel = artifactService.findArtifactContentChannel(artifact)) {
+      channel.position(position);
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(length, 1)));
+      long remaining = length;
+      while (remaining > 0) {
+        buffer.clear();
+        if (remaining < buffer.capacity()) {
+          buffer.limit((int) remaining);
+        }
+        int read = channel.read(buffer);
+        if (read == -1) {
+          throw new IOException("Content of artifact '" + artifact.getId() + "' is truncated");
+        }
+        outputStream.write(buffer.array(), 0, read);
+        remaining -= read;
+      }
+    }
+  }
+
+  /**
+   * Return the ranges of the Range header, if the client requested ranges and the If-Range
+   * condition (if any) is fulfilled. Ranges with an invalid syntax will be ignored.
+   */
+  private List<HttpRange> requestedRanges(HttpServletRequest request, String eTag) {
+    String range = request.getHeader(HttpHeaders.RANGE);
+    if (range == null) {
+      return List.of();
+    }
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    // the artifact has no last modification date, so If-Range dates can never match
+    if (ifRange != null && !ifRange.trim().equals(eTag)) {
+      return List.of();
+    }
+    try {
+      return HttpRange.parseRanges(range);
+    } catch (IllegalArgumentException e) {
+      return List.of();
+    }
+  }
+
+  private static boolean matchesETag(String ifNoneMatch, String eTag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || candidate.equals(eTag) || candidate.equals("W/" + eTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String contentRange(long[] range, long contentLength) {
+    return "bytes " + range[0] + "-" + range[1] + "/" + contentLength;
+  }
+}
@@ -7,13 +7,12 @@ import de.seprojekt.se2019.g4.mimir.security.JwtPrincipal;
 import de.seprojekt.se2019.g4.mimir.security.JwtTokenProvider;
 import de.seprojekt.se2019.g4.mimir.security.user.UserService;
 import java.io.IOException;
-import java.io.InputStream;
 import java.security.Principal;
 import java.util.Optional;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -25,6 +24,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
 /**
  * This controller offers an HTTP interface for manipulating artifacts (e.g. deleting, creating
@@ -36,6 +36,7 @@ public class ArtifactController {
   private final static Logger LOGGER = LoggerFactory.getLogger(ArtifactController.class);
 
   private ArtifactService artifactService;
+  private ArtifactContentWriter artifactContentWriter;
   private FolderService folderService;
   private JwtTokenProvider jwtTokenProvider;
   private UserService userService;
@@ -45,10 +46,12 @@ public class ArtifactController {
    */
   public ArtifactController(
       ArtifactService artifactService,
+      ArtifactContentWriter artifactContentWriter,
       FolderService folderService,
       JwtTokenProvider jwtTokenProvider,
       UserService userService) {
     this.artifactService = artifactService;
+    this.artifactContentWriter = artifactContentWriter;
     this.folderService = folderService;
     this.jwtTokenProvider = jwtTokenProvider;
     this.userService = userService;
@@ -89,7 +92,8 @@ public class ArtifactController {
     LOGGER.info("Generating share token for artifact '{}'", artifact.get().getName());
 
     return ResponseEntity.ok().body(jwtTokenProvider
-        .generateShareToken(artifact.get().getId(), Artifact.TYPE_IDENTIFIER, expirationMs));
+        .generateShareToken(artifact.get().getId(), Artifact.TYPE_IDENTIFIER, null,
+            expirationMs));
   }
 
   /**
@@ -109,62 +113,35 @@ public class ArtifactController {
     LOGGER.info("Generating download token for artifact '{}'", artifact.get().getName());
 
     return ResponseEntity.ok().body(jwtTokenProvider
-        .generateDownloadToken(artifact.get().getId(), Artifact.TYPE_IDENTIFIER));
+        .generateDownloadToken(artifact.get().getId(), Artifact.TYPE_IDENTIFIER, null));
   }
 
   /**
-   * Generate a download of an artifact when a user visit this url
+   * Generate a download of an artifact when a user visit this url. Supports range requests, so
+   * interrupted downloads can be resumed.
    */
   @GetMapping(value = "/artifact/{id}/download")
-  public ResponseEntity<InputStreamResource> downloadArtifact(@PathVariable long id,
-      Principal principal) {
-    Optional<Artifact> artifact = artifactService.findById(id);
-    if (artifact.isEmpty()) {
-      ResponseEntity.notFound().build();
-    }
+  public void downloadArtifact(@PathVariable long id, Principal principal,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Artifact artifact = findAuthorizedArtifact(id, principal);
 
-    if (!userService.isAuthorizedForArtifact(artifact.get(), principal)) {
-      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
-    }
+    LOGGER.info("Download of artifact '{}'", artifact.getName());
 
-    LOGGER.info("Download of artifact '{}'", artifact.get().getName());
-
-    HttpHeaders headers = new HttpHeaders();
-    headers.set("Content-Disposition",
-        String.format("attachment; filename=\"%s\"", artifact.get().getName()));
-
-    InputStream inputStream = artifactService.findArtifactContent(artifact.get());
-    InputStreamResource resource = new InputStreamResource(inputStream);
-    return ResponseEntity.ok()
-        .headers(headers)
-        .contentType(artifact.get().getContentType())
-        .contentLength(artifact.get().getContentLength())
-        // InputStreamResource will close the InputStream
-        .body(resource);
+    artifactContentWriter.write(artifact, true, request, response);
   }
 
   /**
-   * returns raw content of artifact when a user visits this url
+   * returns raw content of artifact when a user visits this url. Supports range requests, so
+   * e.g. video players can seek inside the artifact.
    */
   @GetMapping(value = "/artifact/{id}/raw")
-  public ResponseEntity getRawData(@PathVariable Long id, Principal principal) {
-    Optional<Artifact> artifactOptional = artifactService.findById(id);
-    if (artifactOptional.isEmpty()) {
-      return ResponseEntity.notFound().build();
-    }
-    Artifact artifact = artifactOptional.get();
-    if (!userService.isAuthorizedForArtifact(artifact, principal)) {
-      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
-    }
+  public void getRawData(@PathVariable Long id, Principal principal,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Artifact artifact = findAuthorizedArtifact(id, principal);
 
     LOGGER.info("Download of raw artifact '{}'", artifact.getName());
 
-    InputStream inputStream = artifactService.findArtifactContent(artifact);
-    InputStreamResource content = new InputStreamResource(inputStream);
-    return ResponseEntity.ok()
-        .contentType(artifact.getContentType())
-        .contentLength(artifact.getContentLength())
-        .body(content);
+    artifactContentWriter.write(artifact, false, request, response);
   }
 
   /**
@@ -261,4 +238,16 @@ public class ArtifactController {
     artifactService.delete(artifact.get());
     return ResponseEntity.ok().build();
   }
+
+  /**
+   * Return the artifact with the given id, if the user is authorized for it.
+   */
+  private Artifact findAuthorizedArtifact(long id, Principal principal) {
+    Artifact artifact = artifactService.findById(id)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    if (!userService.isAuthorizedForArtifact(artifact, principal)) {
+      throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+    }
+    return artifact;
+  }
 }
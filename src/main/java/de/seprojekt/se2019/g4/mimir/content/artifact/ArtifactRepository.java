@@ -1,8 +1,12 @@
 package de.seprojekt.se2019.g4.mimir.content.artifact;
 
 import de.seprojekt.se2019.g4.mimir.content.folder.Folder;
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * This interface will be implemented by Spring Data JPA. The implementation will help us to store
@@ -15,8 +19,27 @@ public interface ArtifactRepository extends JpaRepository<Artifact, Long> {
 
   List<Artifact> findByParentFolder(Folder parentFolder);
 
+  List<Artifact> findByParentFolderPathStartingWith(String path);
+
   boolean existsByParentFolderAndName(Folder parentFolder, String name);
 
   boolean existsByParentFolder(Folder parentFolder);
 
+  /**
+   * Return the artifacts with the given ids together with their folders and spaces (one query).
+   */
+  @Query("select a from Artifact a left join fetch a.parentFolder left join fetch a.space"
+      + " where a.id in :ids")
+  List<Artifact> findAllWithFolderAndSpaceByIdIn(@Param("ids") Collection<Long> ids);
+
+  /**
+   * Return the first artifacts (ordered by id) with an id greater than the given one (keyset
+   * pagination, the database doesn't skip rows).
+   */
+  @Query("select a from Artifact a left join fetch a.parentFolder left join fetch a.space"
+      + " where a.id > :id order by a.id")
+  List<Artifact> findByIdGreaterThan(@Param("id") long id, Pageable pageable);
+
+  long countByIdGreaterThan(long id);
+
 }
@@ -1,20 +1,29 @@
 package de.seprojekt.se2019.g4.mimir.content.artifact;
 
+import de.seprojekt.se2019.g4.mimir.content.blob.BlobService;
+import de.seprojekt.se2019.g4.mimir.content.blob.BlobStore;
+import de.seprojekt.se2019.g4.mimir.content.blob.StoredBlob;
 import de.seprojekt.se2019.g4.mimir.content.folder.Folder;
 import de.seprojekt.se2019.g4.mimir.content.folder.FolderService;
 import de.seprojekt.se2019.g4.mimir.content.space.SpaceService;
 import de.seprojekt.se2019.g4.mimir.content.thumbnail.Thumbnail;
-import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailGenerator;
-import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailRepository;
-import java.io.ByteArrayInputStream;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailRendition;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailService;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -29,8 +38,9 @@ public class ArtifactService {
   private final static Logger LOGGER = LoggerFactory.getLogger(ArtifactService.class);
 
   private ArtifactRepository artifactRepository;
-  private ThumbnailGenerator thumbnailGenerator;
-  private ThumbnailRepository thumbnailRepository;
+  private BlobStore blobStore;
+  private BlobService blobService;
+  private ThumbnailService thumbnailService;
   private SpaceService spaceService;
   private FolderService folderService;
 
@@ -39,13 +49,15 @@ public class ArtifactService {
    */
   public ArtifactService(
       ArtifactRepository artifactRepository,
-      ThumbnailRepository thumbnailRepository,
-      ThumbnailGenerator thumbnailGenerator,
+      BlobStore blobStore,
+      BlobService blobService,
+      ThumbnailService thumbnailService,
       SpaceService spaceService,
       @Lazy FolderService folderService) {
     this.artifactRepository = artifactRepository;
-    this.thumbnailRepository = thumbnailRepository;
-    this.thumbnailGenerator = thumbnailGenerator;
+    this.blobStore = blobStore;
+    this.blobService = blobService;
+    this.thumbnailService = thumbnailService;
     this.spaceService = spaceService;
     this.folderService = folderService;
   }
@@ -57,6 +69,13 @@ public class ArtifactService {
     return artifactRepository.findByParentFolder(parentFolder);
   }
 
+  /**
+   * Return all artifacts in the folder with the given path and its sub folders
+   */
+  public List<Artifact> findByFolderPath(String path) {
+    return artifactRepository.findByParentFolderPathStartingWith(path);
+  }
+
   /**
    * Check if an artifact with the given parent folder exists
    */
@@ -71,20 +90,94 @@ public class ArtifactService {
     return artifactRepository.findById(id);
   }
 
+  /**
+   * Return at most size artifacts (ordered by id) with an id greater than the given one.
+   */
+  public List<Artifact> findPageAfter(long id, int size) {
+    return artifactRepository.findByIdGreaterThan(id, PageRequest.of(0, size));
+  }
+
+  /**
+   * Return the number of artifacts with an id greater than the given one.
+   */
+  public long countAfter(long id) {
+    return artifactRepository.countByIdGreaterThan(id);
+  }
+
+  /**
+   * Return the artifacts with the given ids (ids of missing artifacts are ignored).
+   */
+  public List<Artifact> findAllById(Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return List.of();
+    }
+    return artifactRepository.findAllWithFolderAndSpaceByIdIn(ids);
+  }
+
   /**
    * Find and return the content of an artifact as an input stream.
    */
-  public InputStream findArtifactContent(Artifact artifact) {
-    return new ByteArrayInputStream(artifact.getContent());
+  public InputStream findArtifactContent(Artifact artifact) throws IOException {
+    return blobStore.open(artifact.getContentHash());
+  }
+
+  /**
+   * Find and return the content of an artifact as a channel, which allows reading parts of the
+   * content.
+   */
+  public SeekableByteChannel findArtifactContentChannel(Artifact artifact) throws IOException {
+    return blobStore.openChannel(artifact.getContentHash());
+  }
+
+  /**
+   * Find and return the local file which contains the content of an artifact, if there is one.
+   */
+  public Optional<Path> findArtifactContentFile(Artifact artifact) {
+    return blobStore.findFile(artifact.getContentHash());
+  }
+
+  /**
+   * Find and return the thumbnail (default rendition) of an artifact. Artifacts with the same
+   * content share their thumbnail.
+   */
+  public Optional<Thumbnail> findThumbnail(Artifact artifact) {
+    return findThumbnail(artifact, ThumbnailRendition.DEFAULT);
+  }
+
+  /**
+   * Find and return the given rendition of the thumbnail of an artifact. It will be generated, if
+   * it is requested for the first time.
+   */
+  public Optional<Thumbnail> findThumbnail(Artifact artifact, ThumbnailRendition rendition) {
+    return thumbnailService
+        .find(artifact.getContentHash(), artifact.getContentType(), rendition);
+  }
+
+  /**
+   * Find and return the given rendition of the thumbnails of the given artifacts (by content hash)
+   * with one query. Missing renditions are not generated.
+   */
+  public Map<String, Thumbnail> findThumbnails(Collection<Artifact> artifacts,
+      ThumbnailRendition rendition) {
+    Set<String> contentHashes = new HashSet<>();
+    for (Artifact artifact : artifacts) {
+      contentHashes.add(artifact.getContentHash());
+    }
+    return thumbnailService.findAll(contentHashes, rendition);
   }
 
   /**
-   * Find and return the thumbnail of an artifact as an input stream.
+   * Check if the thumbnail of an artifact is being generated.
    */
-  public Optional<InputStream> findThumbnail(Artifact artifact) {
-    Thumbnail thumbnail = artifact.getThumbnail();
-    return thumbnail.getContentLength() == null ? Optional.empty()
-        : Optional.of(new ByteArrayInputStream(thumbnail.getContent()));
+  public boolean isThumbnailPending(Artifact artifact) {
+    return thumbnailService.isPending(artifact.getContentHash());
+  }
+
+  /**
+   * Find and return the image of a thumbnail as an input stream.
+   */
+  public InputStream findThumbnailContent(Thumbnail thumbnail) throws IOException {
+    return blobStore.open(thumbnail.getBlobHash());
   }
 
   /**
@@ -99,7 +192,9 @@ public class ArtifactService {
    */
   @Transactional
   public Artifact update(Artifact artifact) {
-    return artifactRepository.save(artifact);
+    artifact = artifactRepository.save(artifact);
+    folderService.increaseSubtreeVersion(artifact.getParentFolder());
+    return artifact;
   }
 
   /**
@@ -108,12 +203,19 @@ public class ArtifactService {
   @Transactional
   public Artifact create(String displayName, String author, MultipartFile file, Folder parentFolder)
       throws IOException {
-    Artifact artifact = new Artifact();
-    artifact.setName(displayName);
-    artifact.setAuthor(author);
-    artifact.setParentFolder(parentFolder);
-    artifact.setCreationDate(Instant.now());
-    return this.upload(artifact, file);
+    return this.upload(newArtifact(displayName, author, parentFolder), file);
+  }
+
+  /**
+   * Create a new artifact with the content of the given local file (e.g. a completed chunked
+   * upload). The file will be linked into the blob store, it is kept.
+   */
+  @Transactional
+  public Artifact create(String displayName, String author, MediaType contentType, Path file,
+      Folder parentFolder) throws IOException {
+    Artifact artifact = newArtifact(displayName, author, parentFolder);
+    LOGGER.info("Saving artifact '{}'", artifact.getName());
+    return this.upload(artifact, contentType, blobService.store(file));
   }
 
   /**
@@ -124,47 +226,69 @@ public class ArtifactService {
       throws IOException {
     LOGGER.info("Saving artifact '{}'", artifact.getName());
 
+    // stream the artifact binary data into the blob store, the database only keeps the reference
+    // - identical content is stored only once
+    try (InputStream inputStream = file.getInputStream()) {
+      StoredBlob storedBlob = blobService.store(inputStream);
+      return this.upload(artifact, MediaType.valueOf(file.getContentType()), storedBlob);
+    }
+  }
+
+  /**
+   * Let the artifact reference the given content, update its metadata and request a thumbnail.
+   */
+  private Artifact upload(Artifact artifact, MediaType contentType, StoredBlob storedBlob) {
     // update metadata of artifact
-    MediaType contentType = MediaType.valueOf(file.getContentType());
     artifact.setContentType(contentType);
     artifact
         .setSpace(
             spaceService.findByRootFolder(folderService.getRootFolder(artifact.getParentFolder()))
                 .get());
 
-    // save artifact binary data
-    try (InputStream inputStream = file.getInputStream()) {
-      artifact.setContentLength(file.getSize());
-      artifact.setContent(inputStream.readAllBytes());
-    }
+    String previousContentHash = artifact.getContentHash();
+    artifact.setContentLength(storedBlob.getContentLength());
+    artifact.setContentHash(storedBlob.getHash());
     Artifact updatedArtifact = artifactRepository.save(artifact);
-
-    // generate thumbnail (beware - InputStreams are one-time-use only)
-    try (InputStream storedContent = new ByteArrayInputStream(artifact.getContent())) {
-      Optional<InputStream> possibleThumbnail = thumbnailGenerator
-          .generateThumbnail(storedContent, artifact.getContentType());
-      if (possibleThumbnail.isEmpty()) {
-        return updatedArtifact;
-      }
-      try (InputStream thumbnailStream = possibleThumbnail.get()) {
-        Thumbnail thumbnail = artifact.getThumbnail();
-        byte[] thumbnailContent = thumbnailStream.readAllBytes();
-        thumbnail.setContent(thumbnailContent);
-        thumbnail.setContentLength((long) thumbnailContent.length);
-        thumbnailRepository.save(thumbnail);
-        return artifactRepository.save(artifact);
-      }
+    folderService.increaseSubtreeVersion(updatedArtifact.getParentFolder());
+    if (previousContentHash != null) {
+      releaseContent(previousContentHash);
     }
+
+    // artifacts with the same content share the thumbnail, so it is only generated once (in the
+    // background)
+    thumbnailService.request(updatedArtifact.getContentHash(), updatedArtifact.getContentType());
+    return updatedArtifact;
   }
 
   /**
-   * Deletes the artifacts with its file and thumbnail. *
+   * Deletes the artifacts with its file and thumbnail, if no other artifact has the same content.
    */
   @Transactional
   public void delete(Artifact artifact) {
     LOGGER.info("Deleting artifact '{}'", artifact.getName());
-    thumbnailRepository.delete(artifact.getThumbnail());
     artifactRepository.delete(artifact);
+    folderService.increaseSubtreeVersion(artifact.getParentFolder());
+    releaseContent(artifact.getContentHash());
+  }
+
+  private static Artifact newArtifact(String displayName, String author, Folder parentFolder) {
+    Artifact artifact = new Artifact();
+    artifact.setName(displayName);
+    artifact.setAuthor(author);
+    artifact.setParentFolder(parentFolder);
+    artifact.setCreationDate(Instant.now());
+    return artifact;
+  }
+
+  /**
+   * Release the reference to the content with the given hash. If no artifact references the content
+   * anymore, its thumbnail will be deleted and the blob store will delete the content.
+   */
+  private void releaseContent(String contentHash) {
+    if (contentHash == null || !blobService.release(contentHash)) {
+      return;
+    }
+    thumbnailService.delete(contentHash);
   }
 
 }
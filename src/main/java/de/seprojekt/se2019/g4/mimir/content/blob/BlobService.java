@@ -0,0 +1,170 @@
+package de.seprojekt.se2019.g4.mimir.content.blob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * This service deduplicates the content in the {@link BlobStore}. Identical content is stored only
+ * once and every reference (e.g. an artifact) increases the reference count of the content. When
+ * the last reference was released, the file will be deleted by a periodic cleanup.
+ *
+ * <p>The cleanup deletes the file while it holds the lock of the database row and a new
+ * reference always restores a missing file, so an upload of the same content at the same time
+ * can't end up with a reference to a deleted file. The row of new content is inserted in a
+ * separate transaction first, so concurrent uploads of the same new content increase the reference
+ * count of the same locked row one after another.
+ */
+@Service
+public class BlobService {
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(BlobService.class);
+  private static final int MAX_LOCK_ATTEMPTS = 3;
+
+  private BlobStore blobStore;
+  private StoredBlobRepository storedBlobRepository;
+  private TransactionTemplate insertTransaction;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public BlobService(BlobStore blobStore, StoredBlobRepository storedBlobRepository,
+      PlatformTransactionManager transactionManager) {
+    this.blobStore = blobStore;
+    this.storedBlobRepository = storedBlobRepository;
+    this.insertTransaction = new TransactionTemplate(transactionManager);
+    this.insertTransaction
+        .setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  /**
+   * Store the content of the given input stream and add a reference to it. If the same content is
+   * already stored, only the reference count will be increased.
+   */
+  @Transactional
+  public StoredBlob store(InputStream content) throws IOException {
+    return acquire(blobStore.spool(content));
+  }
+
+  /**
+   * Link the given file into the blob store and add a reference to it. The file is kept, it has
+   * to be deleted by the caller.
+   */
+  @Transactional
+  public StoredBlob store(Path file) throws IOException {
+    return acquire(blobStore.spool(file));
+  }
+
+  /**
+   * Add a reference to the spooled content and move it to its final location, if necessary.
+   */
+  private StoredBlob acquire(SpooledBlob spooledBlob) throws IOException {
+    try {
+      StoredBlob storedBlob = lockOrInsert(spooledBlob);
+      if (storedBlob.getCrc32() == null) {
+        storedBlob.setCrc32(spooledBlob.getCrc32());
+      }
+      storedBlob.setReferenceCount(storedBlob.getReferenceCount() + 1);
+      // the file is missing, if it was deleted by a cleanup which wasn't committed
+      blobStore.persist(spooledBlob);
+      return storedBlobRepository.save(storedBlob);
+    } finally {
+      blobStore.discard(spooledBlob);
+    }
+  }
+
+  /**
+   * Return the locked row of the spooled content. A missing row is inserted (without references)
+   * and committed in a separate transaction before it is locked; if a concurrent upload inserted it
+   * first, the insert fails and its row is used. The row is inserted again, if a cleanup deleted it
+   * before it was locked.
+   */
+  private StoredBlob lockOrInsert(SpooledBlob spooledBlob) {
+    boolean exists = storedBlobRepository.existsById(spooledBlob.getHash());
+    for (int attempt = 0; attempt < MAX_LOCK_ATTEMPTS; attempt++) {
+      if (!exists) {
+        try {
+          insertTransaction.execute(status -> {
+            storedBlobRepository.insert(spooledBlob.getHash(), spooledBlob.getCrc32(),
+                spooledBlob.getContentLength());
+            return null;
+          });
+        } catch (DataIntegrityViolationException e) {
+          LOGGER.debug("Blob '{}' was inserted by a concurrent upload", spooledBlob.getHash());
+        }
+      }
+      Optional<StoredBlob> storedBlob = storedBlobRepository.findByHash(spooledBlob.getHash());
+      if (storedBlob.isPresent()) {
+        return storedBlob.get();
+      }
+      exists = false;
+    }
+    throw new IllegalStateException("Can't lock blob '" + spooledBlob.getHash() + "'");
+  }
+
+  /**
+   * Check if the content with the given hash is referenced. Its row stays locked until the end of
+   * the transaction, so the last reference can't be released in the meantime.
+   */
+  @Transactional
+  public boolean isReferenced(String hash) {
+    return storedBlobRepository.findByHash(hash)
+        .map(storedBlob -> storedBlob.getReferenceCount() > 0).orElse(false);
+  }
+
+  /**
+   * Return the stored content with the given hashes (by hash).
+   */
+  public Map<String, StoredBlob> findByHashes(Collection<String> hashes) {
+    Map<String, StoredBlob> storedBlobs = new HashMap<>();
+    for (StoredBlob storedBlob : storedBlobRepository.findAllById(hashes)) {
+      storedBlobs.put(storedBlob.getHash(), storedBlob);
+    }
+    return storedBlobs;
+  }
+
+  /**
+   * Remove a reference to the content with the given hash. Return true, if the content isn't
+   * referenced anymore.
+   */
+  @Transactional
+  public boolean release(String hash) {
+    Optional<StoredBlob> possibleStoredBlob = storedBlobRepository.findByHash(hash);
+    if (possibleStoredBlob.isEmpty()) {
+      LOGGER.warn("Can't release unknown blob '{}'", hash);
+      return false;
+    }
+    StoredBlob storedBlob = possibleStoredBlob.get();
+    storedBlob.setReferenceCount(Math.max(0, storedBlob.getReferenceCount() - 1));
+    storedBlobRepository.save(storedBlob);
+    return storedBlob.getReferenceCount() == 0;
+  }
+
+  /**
+   * Delete the files of all content which isn't referenced anymore.
+   */
+  @Scheduled(fixedDelayString = "${app.blobCleanupIntervalMs}")
+  @Transactional
+  public void deleteUnreferencedBlobs() {
+    List<StoredBlob> storedBlobs = storedBlobRepository.findTop100ByReferenceCount(0L);
+    for (StoredBlob storedBlob : storedBlobs) {
+      LOGGER.info("Deleting unreferenced blob '{}'", storedBlob.getHash());
+      blobStore.delete(storedBlob.getHash());
+      storedBlobRepository.delete(storedBlob);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package de.seprojekt.se2019.g4.mimir.content.blob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+/**
+ * This service stores binary content (e.g. the content of artifacts) on the local file system
+ * instead of the database. Every file is named after the SHA-256 hash of its content, so the hash
+ * acts as the reference which is stored in the database. The files are spread over a directory
+ * tree (ab/cd/abcd...) to keep the number of files per directory small. Content is written to the
+ * tmp directory first and moved to its final location when it is complete. Which files are still
+ * needed is tracked by the {@link BlobService}.
+ */
+@Service
+public class BlobStore {
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(BlobStore.class);
+  private static final String HASH_ALGORITHM = "SHA-256";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private Path root;
+  private Path temporaryDirectory;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public BlobStore(@Value("${app.blobStoreDirectory}") String directory) throws IOException {
+    this.root = Paths.get(directory).toAbsolutePath().normalize();
+    this.temporaryDirectory = root.resolve("tmp");
+    Files.createDirectories(temporaryDirectory);
+    LOGGER.info("Storing blobs in '{}'", root);
+  }
+
+  /**
+   * Write the content of the given input stream to a temporary file and return the hash, the
+   * CRC-32 checksum (needed e.g. for ZIP archives) and the size of the content. The content is
+   * spooled in fixed-size chunks while the hash is computed, so the used heap does not depend on
+   * the size of the content. The temporary file must be moved to its final location with
+   * {@link #persist(SpooledBlob)} or removed with {@link #discard(SpooledBlob)}.
+   */
+  public SpooledBlob spool(InputStream content) throws IOException {
+    MessageDigest digest = newDigest();
+    CRC32 crc32 = new CRC32();
+    long contentLength = 0;
+    Path tempFile = Files.createTempFile(temporaryDirectory, "upload", ".tmp");
+    try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = content.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+        crc32.update(buffer, 0, read);
+        outputStream.write(buffer, 0, read);
+        contentLength += read;
+      }
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+    return new SpooledBlob(tempFile, toHex(digest.digest()), crc32.getValue(), contentLength);
+  }
+
+  /**
+   * Take over the given file (e.g. a completed chunked upload) as spooled content. The file is
+   * read once to compute the hash and the checksum and then linked instead of copied into the blob
+   * store (it is only copied, if the file system doesn't support links). The given file is kept,
+   * so the caller can still use it, if its transaction is rolled back.
+   */
+  public SpooledBlob spool(Path file) throws IOException {
+    MessageDigest digest = newDigest();
+    CRC32 crc32 = new CRC32();
+    long contentLength = 0;
+    try (InputStream inputStream = Files.newInputStream(file)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = inputStream.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+        crc32.update(buffer, 0, read);
+        contentLength += read;
+      }
+    }
+    Path tempFile = temporaryDirectory.resolve("upload" + UUID.randomUUID() + ".tmp");
+    try {
+      try {
+        Files.createLink(tempFile, file);
+      } catch (UnsupportedOperationException | FileSystemException e) {
+        LOGGER.debug("Can't link '{}', copying it", file, e);
+        Files.copy(file, tempFile);
+      }
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+    return new SpooledBlob(tempFile, toHex(digest.digest()), crc32.getValue(), contentLength);
+  }
+
+  /**
+   * Move the spooled content to its final location. If content with the same hash is already
+   * stored, the spooled content will be discarded - storing the same content twice will not create
+   * a second file.
+   */
+  public void persist(SpooledBlob spooledBlob) throws IOException {
+    Path path = resolve(spooledBlob.getHash());
+    if (Files.exists(path)) {
+      discard(spooledBlob);
+      return;
+    }
+    Files.createDirectories(path.getParent());
+    Files.move(spooledBlob.getTemporaryFile(), path, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Delete the temporary file of the spooled content, if it still exists.
+   */
+  public void discard(SpooledBlob spooledBlob) throws IOException {
+    Files.deleteIfExists(spooledBlob.getTemporaryFile());
+  }
+
+  /**
+   * Return the content with the given hash as an input stream.
+   */
+  public InputStream open(String hash) throws IOException {
+    return Files.newInputStream(resolve(hash));
+  }
+
+  /**
+   * Return the content with the given hash as a channel, which allows reading from any position.
+   */
+  public SeekableByteChannel openChannel(String hash) throws IOException {
+    return Files.newByteChannel(resolve(hash), StandardOpenOption.READ);
+  }
+
+  /**
+   * Return the local file containing the content with the given hash. The file can be handed to
+   * the operating system (e.g. for zero-copy transfers), but must not be modified. An empty
+   * optional is returned, if the content is not available as a local file.
+   */
+  public Optional<Path> findFile(String hash) {
+    Path path = resolve(hash);
+    return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+  }
+
+  /**
+   * Check if content with the given hash is stored.
+   */
+  public boolean exists(String hash) {
+    return Files.exists(resolve(hash));
+  }
+
+  /**
+   * Delete the content with the given hash. The caller must make sure that the content isn't
+   * referenced anymore - see {@link BlobService}.
+   */
+  public void delete(String hash) {
+    Path path = resolve(hash);
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOGGER.error("Can't delete blob '{}'", path, e);
+    }
+  }
+
+  /**
+   * Return the path of the file for the given hash.
+   */
+  Path resolve(String hash) {
+    Assert.isTrue(hash != null && hash.matches("[0-9a-f]{64}"), "invalid blob hash");
+    return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+      builder.append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,48 @@
+package de.seprojekt.se2019.g4.mimir.content.blob;
+
+import java.nio.file.Path;
+
+/**
+ * This class describes content which was written to a temporary file of the {@link BlobStore}, but
+ * was not moved to its final location yet.
+ */
+public class SpooledBlob {
+
+  private final Path temporaryFile;
+  private final String hash;
+  private final long crc32;
+  private final long contentLength;
+
+  SpooledBlob(Path temporaryFile, String hash, long crc32, long contentLength) {
+    this.temporaryFile = temporaryFile;
+    this.hash = hash;
+    this.crc32 = crc32;
+    this.contentLength = contentLength;
+  }
+
+  Path getTemporaryFile() {
+    return temporaryFile;
+  }
+
+  public String getHash() {
+    return hash;
+  }
+
+  public long getCrc32() {
+    return crc32;
+  }
+
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  @Override
+  public String toString() {
+    return "SpooledBlob{" +
+        "temporaryFile=" + temporaryFile +
+        ", hash='" + hash + '\'' +
+        ", crc32=" + crc32 +
+        ", contentLength=" + contentLength +
+        '}';
+  }
+}
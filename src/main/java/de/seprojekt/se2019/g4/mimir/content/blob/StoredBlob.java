@@ -0,0 +1,101 @@
+package de.seprojekt.se2019.g4.mimir.content.blob;
+
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * This class defines how the table stored_blob should look like (which columns, which
+ * primary/foreign keys etc.) Every row describes one file of the {@link BlobStore} and counts how
+ * often it is referenced (e.g. by artifacts with the same content).
+ */
+@Entity
+public class StoredBlob {
+
+  @Id
+  @Column(length = 64)
+  private String hash;
+
+  @Column
+  private Long contentLength;
+
+  @Column
+  private Long crc32;
+
+  @Column
+  private Long referenceCount;
+
+  public StoredBlob() {
+  }
+
+  public StoredBlob(String hash, long crc32, long contentLength) {
+    this.hash = hash;
+    this.crc32 = crc32;
+    this.contentLength = contentLength;
+    this.referenceCount = 0L;
+  }
+
+  public String getHash() {
+    return hash;
+  }
+
+  public void setHash(String hash) {
+    this.hash = hash;
+  }
+
+  public Long getContentLength() {
+    return contentLength;
+  }
+
+  public void setContentLength(Long contentLength) {
+    this.contentLength = contentLength;
+  }
+
+  /**
+   * Return the CRC-32 checksum of the content or null, if it is unknown (content stored before
+   * checksums were computed).
+   */
+  public Long getCrc32() {
+    return crc32;
+  }
+
+  public void setCrc32(Long crc32) {
+    this.crc32 = crc32;
+  }
+
+  public Long getReferenceCount() {
+    return referenceCount;
+  }
+
+  public void setReferenceCount(Long referenceCount) {
+    this.referenceCount = referenceCount;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    StoredBlob that = (StoredBlob) o;
+    return Objects.equals(hash, that.hash);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(hash);
+  }
+
+  @Override
+  public String toString() {
+    return "StoredBlob{" +
+        "hash='" + hash + '\'' +
+        ", contentLength=" + contentLength +
+        ", crc32=" + crc32 +
+        ", referenceCount=" + referenceCount +
+        '}';
+  }
+}
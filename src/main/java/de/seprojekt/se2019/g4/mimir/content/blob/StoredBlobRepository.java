@@ -0,0 +1,35 @@
+package de.seprojekt.se2019.g4.mimir.content.blob;
+
+import java.util.List;
+import java.util.Optional;
+import javax.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * This interface will be implemented by Spring Data JPA. The implementation will help us to store
+ * {@link StoredBlob} in the database and execute CRUD (create, read, update, delete) operation on
+ * the database. The rows are locked while the reference count is changed, so concurrent uploads
+ * and deletions of the same content can't lose updates.
+ */
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, String> {
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  Optional<StoredBlob> findByHash(String hash);
+
+  /**
+   * Insert a row without references. Unlike save (which merges entities with an assigned id), the
+   * insert fails, if the row exists already.
+   */
+  @Modifying
+  @Query(value = "insert into stored_blob (hash, crc32, content_length, reference_count)"
+      + " values (:hash, :crc32, :contentLength, 0)", nativeQuery = true)
+  void insert(@Param("hash") String hash, @Param("crc32") long crc32,
+      @Param("contentLength") long contentLength);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  List<StoredBlob> findTop100ByReferenceCount(Long referenceCount);
+}
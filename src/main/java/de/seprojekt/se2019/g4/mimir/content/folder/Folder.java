@@ -12,8 +12,10 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
 import org.springframework.lang.Nullable;
 
 /**
@@ -21,6 +23,7 @@ import org.springframework.lang.Nullable;
  * keys etc.) The result of a folder table query will be mapped on objects from this class.
  */
 @Entity
+@Table(indexes = @Index(columnList = "path"))
 public class Folder {
 
   public static final String TYPE_IDENTIFIER = "F";
@@ -40,6 +43,23 @@ public class Folder {
   @Column(length = 512)
   private String name;
 
+  /**
+   * The ids of all ancestors and of the folder itself, e.g. '/1/5/9/' for folder 9 in folder 5 in
+   * the root folder 1. Checking if a folder is inside another folder is a prefix comparison.
+   */
+  @JsonIgnore
+  @Column(length = 512)
+  private String path;
+
+  /**
+   * Increased whenever the folder or anything inside it (sub folders and artifacts, recursively)
+   * changes, e.g. to detect that a cached ZIP archive of the folder is outdated. The column is only
+   * updated by {@link FolderRepository#increaseSubtreeVersion}, which is atomic.
+   */
+  @JsonIgnore
+  @Column(updatable = false)
+  private Long subtreeVersion = 0L;
+
   @JsonIgnore
   @JoinColumn
   @ManyToOne
@@ -71,6 +91,25 @@ public class Folder {
     this.name = name;
   }
 
+  public String getPath() {
+    return path;
+  }
+
+  public void setPath(String path) {
+    this.path = path;
+  }
+
+  /**
+   * Return the subtree version (0 for folders created before subtree versions existed).
+   */
+  public long getSubtreeVersion() {
+    return subtreeVersion == null ? 0 : subtreeVersion;
+  }
+
+  public void setSubtreeVersion(Long subtreeVersion) {
+    this.subtreeVersion = subtreeVersion;
+  }
+
   public Space getSpace() {
     return space;
   }
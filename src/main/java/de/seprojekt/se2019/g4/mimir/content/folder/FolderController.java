@@ -4,18 +4,15 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import de.seprojekt.se2019.g4.mimir.security.JwtTokenProvider;
 import de.seprojekt.se2019.g4.mimir.security.user.UserService;
 import java.io.IOException;
-import java.io.InputStream;
 import java.security.Principal;
 import java.util.Optional;
+import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
-import org.springframework.util.MimeType;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -23,6 +20,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
 
 /**
  * This controller offers an HTTP interface for manipulating folders (e.g. deleting, creating etc.)
@@ -83,7 +81,8 @@ public class FolderController {
     LOGGER.info("Generating share token for folder '{}'", folder.get().getName());
 
     return ResponseEntity.ok().body(jwtTokenProvider
-        .generateShareToken(folder.get().getId(), Folder.TYPE_IDENTIFIER, expirationMs));
+        .generateShareToken(folder.get().getId(), Folder.TYPE_IDENTIFIER, folder.get().getPath(),
+            expirationMs));
   }
 
   /**
@@ -103,39 +102,33 @@ public class FolderController {
     LOGGER.info("Generating download token for folder '{}'", folder.get().getName());
 
     return ResponseEntity.ok().body(jwtTokenProvider
-        .generateDownloadToken(folder.get().getId(), Folder.TYPE_IDENTIFIER));
+        .generateDownloadToken(folder.get().getId(), Folder.TYPE_IDENTIFIER,
+            folder.get().getPath()));
   }
 
   /**
    * Generates a download of a folder as a ZIP file
    */
   @GetMapping(value = "/folder/{id}/download")
-  public ResponseEntity<InputStreamResource> downloadFolder(@PathVariable long id,
-      Principal principal) throws IOException {
+  public void downloadFolder(@PathVariable long id, Principal principal,
+      HttpServletResponse response) throws IOException {
 
     Optional<Folder> folder = folderService.findById(id);
     if (folder.isEmpty()) {
-      return ResponseEntity.notFound().build();
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND);
     }
 
     if (!userService.isAuthorizedForFolder(folder.get(), principal)) {
-      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+      throw new ResponseStatusException(HttpStatus.FORBIDDEN);
     }
 
     LOGGER.info("Download of folder '{}'", folder.get().getName());
 
-    HttpHeaders headers = new HttpHeaders();
-    headers.set("Content-Disposition",
+    // the ZIP is streamed while it is created, so its length is unknown (chunked response)
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
         String.format("attachment; filename=\"%s\"", folder.get().getName() + ".zip"));
-
-    InputStream inputStream = this.folderService.zip(folder.get());
-    InputStreamResource resource = new InputStreamResource(inputStream);
-    return ResponseEntity.ok()
-        .headers(headers)
-        .contentType(MediaType.asMediaType(MimeType.valueOf("application/zip")))
-        .contentLength(inputStream.available())
-        // InputStreamResource will close the InputStream
-        .body(resource);
+    response.setContentType("application/zip");
+    this.folderService.zip(folder.get(), response.getOutputStream());
   }
 
   /**
@@ -161,11 +154,13 @@ public class FolderController {
   }
 
   /**
-   * The user can rename a folder by calling this interface
+   * The user can rename a folder or move it into another folder of the same space by calling this
+   * interface
    */
   @PutMapping(value = "/folder/{id}")
   public ResponseEntity<FolderDTO> renameFolder(@PathVariable long id,
-      @RequestParam("name") String name, Principal principal) {
+      @RequestParam(name = "name", required = false) String name,
+      @RequestParam(name = "parentId", required = false) Long parentId, Principal principal) {
     Optional<Folder> folderOptional = folderService.findById(id);
     if (folderOptional.isEmpty()) {
       return ResponseEntity.notFound().build();
@@ -173,15 +168,42 @@ public class FolderController {
     if (!userService.isAuthorizedForFolder(folderOptional.get(), principal)) {
       return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
     }
-    if (StringUtils.isEmpty(name)) {
+    if ((name == null && parentId == null) || (name != null && StringUtils.isEmpty(name))) {
       return ResponseEntity.badRequest().build();
     }
 
-    LOGGER.info("Renaming of folder from '{}' to '{}'", folderOptional.get().getName(), name);
-
+    // everything is checked before the folder is changed, so a rejected move doesn't rename it
     Folder folder = folderOptional.get();
-    folder.setName(name);
-    folder = folderService.update(folder);
+    Folder parentFolder = null;
+    if (parentId != null) {
+      Optional<Folder> parentFolderOptional = folderService.findById(parentId);
+      if (parentFolderOptional.isEmpty() || folder.getParentFolder() == null) {
+        return ResponseEntity.status(409).build();
+      }
+      parentFolder = parentFolderOptional.get();
+      if (!userService.isAuthorizedForFolder(parentFolder, principal)) {
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+      }
+      // folders can't be moved into other spaces or into themselves
+      if (!folder.getSpace().getId().equals(parentFolder.getSpace().getId())
+          || folderService.matchesOrIsChild(folder, parentFolder)) {
+        return ResponseEntity.status(409).build();
+      }
+    }
+    Folder newParentFolder = parentFolder == null ? folder.getParentFolder() : parentFolder;
+    String newName = name == null ? folder.getName() : name;
+    boolean changesParentFolder = parentFolder != null
+        && !parentFolder.getId().equals(folder.getParentFolder().getId());
+    if (newParentFolder != null && (changesParentFolder || !newName.equals(folder.getName()))
+        && folderService.exists(newParentFolder, newName)) {
+      return ResponseEntity.status(409).build();
+    }
+
+    if (name != null) {
+      LOGGER.info("Renaming of folder from '{}' to '{}'", folder.getName(), name);
+    }
+    folder = folderService.renameAndMove(folder, name, parentFolder);
+
     FolderDTO folderDTO = folderService.getFolderDTOWithTree(folder);
     return ResponseEntity.ok().body(folderDTO);
   }
@@ -0,0 +1,29 @@
+package de.seprojekt.se2019.g4.mimir.content.folder;
+
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class will be automatically executed on application startup (before other
+ * CommandLineRunners) and sets the path of folders, which were created before folders had paths.
+ */
+@Service
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class FolderPathInitializer implements CommandLineRunner {
+
+  private FolderService folderService;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public FolderPathInitializer(FolderService folderService) {
+    this.folderService = folderService;
+  }
+
+  @Override
+  public void run(String... args) {
+    folderService.initializePaths();
+  }
+}
@@ -1,8 +1,12 @@
 package de.seprojekt.se2019.g4.mimir.content.folder;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * This interface will be implemented by Spring Data JPA. The implementation will help us to store
@@ -23,4 +27,24 @@ public interface FolderRepository extends JpaRepository<Folder, Long> {
 
   boolean existsByName(String name);
 
+  List<Folder> findByPathIsNull();
+
+  List<Folder> findByPathStartingWith(String path);
+
+  /**
+   * Replace the start of the path of the folder with the given path and of all its sub folders.
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("update Folder f set f.path = concat(:newPath, substring(f.path, length(:oldPath) + 1))"
+      + " where f.path like concat(:oldPath, '%')")
+  int replacePath(@Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+  /**
+   * Increase the subtree version of the folders with the given ids.
+   */
+  @Modifying(flushAutomatically = true)
+  @Query("update Folder f set f.subtreeVersion = coalesce(f.subtreeVersion, 0) + 1"
+      + " where f.id in :ids")
+  int increaseSubtreeVersion(@Param("ids") Collection<Long> ids);
+
 }
@@ -3,14 +3,21 @@ package de.seprojekt.se2019.g4.mimir.content.folder;
 import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
 import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
 import de.seprojekt.se2019.g4.mimir.content.space.SpaceService;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import de.seprojekt.se2019.g4.mimir.content.zip.ZipCache;
+import de.seprojekt.se2019.g4.mimir.content.zip.ZipItem;
+import de.seprojekt.se2019.g4.mimir.content.zip.ZipService;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -26,6 +33,8 @@ public class FolderService {
   private FolderRepository folderRepository;
   private ArtifactService artifactService;
   private SpaceService spaceService;
+  private ZipService zipService;
+  private ZipCache zipCache;
 
   /**
    * The parameters will be autowired by Spring.
@@ -33,10 +42,14 @@ public class FolderService {
   public FolderService(
       FolderRepository folderRepository,
       ArtifactService artifactService,
-      SpaceService spaceService) {
+      SpaceService spaceService,
+      ZipService zipService,
+      ZipCache zipCache) {
     this.folderRepository = folderRepository;
     this.artifactService = artifactService;
     this.spaceService = spaceService;
+    this.zipService = zipService;
+    this.zipCache = zipCache;
   }
 
   /**
@@ -68,7 +81,111 @@ public class FolderService {
     }
 
     LOGGER.info("Saving folder '{}'", folder.getName());
-    return folderRepository.save(folder);
+    // the path contains the id, which is generated when the folder is saved
+    folder = folderRepository.save(folder);
+    folder.setPath(pathOf(parentFolder, folder));
+    folder = folderRepository.save(folder);
+    increaseSubtreeVersion(folder);
+    return folder;
+  }
+
+  /**
+   * Move a folder (with its content) into another folder of the same space. The paths of the
+   * folder and its sub folders are updated with one query.
+   */
+  @Transactional
+  public Folder move(Folder folder, Folder parentFolder) {
+    LOGGER.info("Moving folder '{}' into folder '{}'", folder.getName(), parentFolder.getName());
+    String oldPath = folder.getPath();
+    increaseSubtreeVersion(folder.getParentFolder());
+    folder.setParentFolder(parentFolder);
+    folder = folderRepository.save(folder);
+    folderRepository.replacePath(oldPath, pathOf(parentFolder, folder));
+    folder = folderRepository.findById(folder.getId()).get();
+    increaseSubtreeVersion(folder);
+    return folder;
+  }
+
+  /**
+   * Rename the given folder (if the name isn't null) and move it into the given parent folder (if
+   * it isn't null) in one transaction.
+   */
+  @Transactional
+  public Folder renameAndMove(Folder folder, String name, Folder parentFolder) {
+    if (name != null) {
+      folder.setName(name);
+      folder = update(folder);
+    }
+    if (parentFolder != null) {
+      folder = move(folder, parentFolder);
+    }
+    return folder;
+  }
+
+  /**
+   * Increase the subtree version of the given folder and of all its ancestors (one query). Must be
+   * called whenever something inside the folder changes.
+   */
+  @Transactional
+  public void increaseSubtreeVersion(Folder folder) {
+    if (folder == null || folder.getPath() == null) {
+      return;
+    }
+    List<Long> ids = new ArrayList<>();
+    for (String id : folder.getPath().split("/")) {
+      if (!id.isEmpty()) {
+        ids.add(Long.valueOf(id));
+      }
+    }
+    folderRepository.increaseSubtreeVersion(ids);
+    // the column is never written from the entities, but the loaded ones should be up to date
+    for (Folder ancestor = folder; ancestor != null; ancestor = ancestor.getParentFolder()) {
+      ancestor.setSubtreeVersion(ancestor.getSubtreeVersion() + 1);
+    }
+  }
+
+  /**
+   * Set the path of all folders without path (e.g. folders created before paths existed).
+   */
+  @Transactional
+  public void initializePaths() {
+    List<Folder> folders = folderRepository.findByPathIsNull();
+    for (Folder folder : folders) {
+      initializePath(folder);
+    }
+    if (!folders.isEmpty()) {
+      LOGGER.info("Initialized paths of {} folders", folders.size());
+    }
+  }
+
+  private String initializePath(Folder folder) {
+    if (folder.getPath() == null) {
+      String parentPath = folder.getParentFolder() == null ? "/"
+          : initializePath(folder.getParentFolder());
+      folder.setPath(parentPath + folder.getId() + "/");
+      folderRepository.save(folder);
+    }
+    return folder.getPath();
+  }
+
+  /**
+   * Group the given folders or artifacts by the id of their parent folder. Root folders (without
+   * parent folder) are skipped.
+   */
+  private static <T> Map<Long, List<T>> groupByParentFolder(List<T> children,
+      Function<T, Folder> parentFolder) {
+    Map<Long, List<T>> childrenByParentFolder = new HashMap<>();
+    for (T child : children) {
+      if (parentFolder.apply(child) != null) {
+        childrenByParentFolder.computeIfAbsent(parentFolder.apply(child).getId(),
+            id -> new LinkedList<>()).add(child);
+      }
+    }
+    return childrenByParentFolder;
+  }
+
+  private static String pathOf(Folder parentFolder, Folder folder) {
+    return (parentFolder == null ? "/" : parentFolder.getPath()) + folder.getId() + "/";
   }
 
   /**
@@ -76,7 +193,9 @@ public class FolderService {
    */
   @Transactional
   public Folder update(Folder folder) {
-    return folderRepository.save(folder);
+    folder = folderRepository.save(folder);
+    increaseSubtreeVersion(folder);
+    return folder;
   }
 
   /**
@@ -91,94 +210,82 @@ public class FolderService {
   }
 
   /**
-   * Returns a folder DTO that contains the folder tree
+   * Returns a folder DTO that contains the folder tree. All sub folders and artifacts (found by the
+   * path of the folder) are loaded with one query each and the tree is assembled in memory, so the
+   * number of queries does not depend on the number of folders.
    */
+  @Transactional
   public FolderDTO getFolderDTOWithTree(Folder folder) {
-    FolderDTO folderDTO = new FolderDTO(folder);
-    folderDTO.setFolders(this.getFolderTree(folder));
-    folderDTO.setArtifacts(artifactService.findByParentFolder(folder));
-    return folderDTO;
+    Map<Long, List<Folder>> childFolders = groupByParentFolder(
+        folderRepository.findByPathStartingWith(folder.getPath()), Folder::getParentFolder);
+    Map<Long, List<Artifact>> childArtifacts = groupByParentFolder(
+        artifactService.findByFolderPath(folder.getPath()), Artifact::getParentFolder);
+    return getFolderTree(folder, childFolders, childArtifacts);
   }
 
   /**
-   * Recursive method to create a tree of folders
+   * Recursive method to create a tree of folders from the children of all folders (by id of the
+   * parent folder).
    */
-  public List<FolderDTO> getFolderTree(Folder folder) {
-    List<Folder> childFolders = folderRepository.findByParentFolder(folder);
+  private FolderDTO getFolderTree(Folder folder, Map<Long, List<Folder>> childFolders,
+      Map<Long, List<Artifact>> childArtifacts) {
+    FolderDTO folderDTO = new FolderDTO(folder);
     List<FolderDTO> folderDTOs = new LinkedList<>();
-    if (childFolders.size() == 0) {
-      FolderDTO folderDTO = new FolderDTO(folder);
-      folderDTO.setArtifacts(this.artifactService.findByParentFolder(folder));
-      return folderDTOs;
-    } else {
-      childFolders.forEach(f -> {
-        FolderDTO folderDTO = new FolderDTO(f);
-        folderDTO.setFolders(this.getFolderTree(f));
-        folderDTO.setArtifacts(this.artifactService.findByParentFolder(f));
-        folderDTOs.add(folderDTO);
-      });
-      return folderDTOs;
+    for (Folder childFolder : childFolders.getOrDefault(folder.getId(), List.of())) {
+      folderDTOs.add(getFolderTree(childFolder, childFolders, childArtifacts));
     }
+    folderDTO.setFolders(folderDTOs);
+    folderDTO.setArtifacts(childArtifacts.getOrDefault(folder.getId(), new LinkedList<>()));
+    return folderDTO;
   }
 
   /**
-   * ZIPs a folder and its content https://www.baeldung.com/java-compress-and-uncompress
+   * ZIPs a folder and its content into the given output stream. The archive is cached until
+   * something inside the folder changes (see {@link Folder#getSubtreeVersion()}), so repeated
+   * downloads of the same folder are sent from the cache.
    */
-  public ByteArrayInputStream zip(Folder folder) throws IOException {
-    // create ZipOutputStream
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-    ZipOutputStream zipOutputStream = new ZipOutputStream(bos);
-
-    // add root folder
-    zipOutputStream.putNextEntry(new ZipEntry(folder.getName() + "/"));
-    zipOutputStream.closeEntry();
-
-    // add artifacts of root folder
-    this.zipFolderArtifacts(folder, folder.getName(), zipOutputStream);
-
-    // recursively add all children folders with artifacts
-    for (Folder childFolder : folderRepository.findByParentFolder(folder)) {
-      this.zipFolder(childFolder, folder.getName() + "/" + childFolder.getName(), zipOutputStream);
-    }
-
-    zipOutputStream.close();
-    return new ByteArrayInputStream(bos.toByteArray());
+  public void zip(Folder folder, OutputStream outputStream) throws IOException {
+    zipCache.write(folder.getId(), folder.getSubtreeVersion(),
+        archive -> writeZip(folder, archive), outputStream);
   }
 
   /**
-   * Recursive method to zip folders
+   * Write the ZIP archive of a folder. The metadata of all sub folders and artifacts is loaded up
+   * front (one query each), the content of the artifacts is streamed (and compressed, if useful) by
+   * the {@link ZipService} - so the used memory does not depend on the size of the folder.
    */
-  private void zipFolder(Folder folder, String path, ZipOutputStream zipOutputStream)
-      throws IOException {
-    List<Folder> childFolders = folderRepository.findByParentFolder(folder);
+  private void writeZip(Folder folder, OutputStream outputStream) throws IOException {
+    Map<Long, List<Folder>> childFolders = groupByParentFolder(
+        folderRepository.findByPathStartingWith(folder.getPath()), Folder::getParentFolder);
+    List<Artifact> artifacts = artifactService.findByFolderPath(folder.getPath());
+    Map<Long, List<Artifact>> childArtifacts = groupByParentFolder(artifacts,
+        Artifact::getParentFolder);
+    // folders have no date, the directories get the date of the newest artifact
+    Instant directoryDate = artifacts.stream().map(Artifact::getCreationDate)
+        .filter(Objects::nonNull).max(Comparator.naturalOrder()).orElse(null);
 
-    // if no further childFolders exist, then end recursion
-    if (childFolders.size() == 0) {
-      zipOutputStream.putNextEntry(new ZipEntry(path + "/"));
-      zipOutputStream.closeEntry();
-      this.zipFolderArtifacts(folder, path, zipOutputStream);
-      return;
-    }
-
-    // otherwise zip childFolders and their artifacts as well
-    zipOutputStream.putNextEntry(new ZipEntry(path + "/"));
-    zipOutputStream.closeEntry();
-    this.zipFolderArtifacts(folder, path, zipOutputStream);
-    for (Folder childFolder : childFolders) {
-      zipFolder(childFolder, path + "/" + childFolder.getName(), zipOutputStream);
-    }
-    return;
+    List<ZipItem> zipItems = new ArrayList<>();
+    this.collectZipItems(folder, folder.getName(), directoryDate, childFolders, childArtifacts,
+        zipItems);
+    // leave closing the output stream to the caller
+    zipService.write(zipItems, outputStream);
   }
 
   /**
-   * ZIPs artifacts of a specific folder
+   * Recursive method to list the entries of the ZIP archive of a folder
    */
-  private void zipFolderArtifacts(Folder folder, String path, ZipOutputStream zipOutputStream)
-      throws IOException {
-    for (Artifact childArtifact : this.artifactService.findByParentFolder(folder)) {
-      zipOutputStream.putNextEntry(new ZipEntry(path + "/" + childArtifact.getName()));
-      zipOutputStream.write(childArtifact.getContent());
-      zipOutputStream.closeEntry();
+  private void collectZipItems(Folder folder, String path, Instant directoryDate,
+      Map<Long, List<Folder>> childFolders, Map<Long, List<Artifact>> childArtifacts,
+      List<ZipItem> zipItems) {
+    zipItems.add(ZipItem.directory(path, directoryDate));
+
+    for (Artifact childArtifact : childArtifacts.getOrDefault(folder.getId(), List.of())) {
+      zipItems.add(ZipItem.artifact(path + "/" + childArtifact.getName(), childArtifact));
+    }
+
+    for (Folder childFolder : childFolders.getOrDefault(folder.getId(), List.of())) {
+      collectZipItems(childFolder, path + "/" + childFolder.getName(), directoryDate,
+          childFolders, childArtifacts, zipItems);
     }
   }
 
@@ -196,9 +303,14 @@ public class FolderService {
    */
   @Transactional
   public void delete(Folder folder) {
+    increaseSubtreeVersion(folder.getParentFolder());
+    deleteRecursively(folder);
+  }
+
+  private void deleteRecursively(Folder folder) {
     List<Folder> childFolders = folderRepository.findByParentFolder(folder);
     for (Folder f : childFolders) {
-      this.delete(f);
+      this.deleteRecursively(f);
     }
     for (Artifact artifact : artifactService.findByParentFolder(folder)) {
       artifact.setSpace(null);
@@ -207,30 +319,25 @@ public class FolderService {
     folder.setSpace(null);
 
     LOGGER.info("Deleting folder '{}'", folder.getName());
-    folderRepository.delete(this.update(folder));
+    folderRepository.delete(folderRepository.save(folder));
   }
 
   /**
-   * returns root folder for this folder
+   * returns root folder for this folder (the first folder of its path)
    */
   public Folder getRootFolder(Folder folder) {
     if (folder == null || folder.getParentFolder() == null) {
       return folder;
-    } else {
-      return getRootFolder(folder.getParentFolder());
     }
+    String path = folder.getPath();
+    long rootFolderId = Long.parseLong(path.substring(1, path.indexOf('/', 1)));
+    return folderRepository.findById(rootFolderId).get();
   }
 
   /**
    * Checks if folder is a child of an other folder
    */
   public boolean matchesOrIsChild(Folder sharedFolder, Folder requestedFolder) {
-    if (requestedFolder.getId() == sharedFolder.getId()) {
-      return true;
-    } else if (requestedFolder.getParentFolder() == null) { // root folders can't be shared
-      return false;
-    } else {
-      return this.matchesOrIsChild(sharedFolder, requestedFolder.getParentFolder());
-    }
+    return requestedFolder.getPath().startsWith(sharedFolder.getPath());
   }
 }
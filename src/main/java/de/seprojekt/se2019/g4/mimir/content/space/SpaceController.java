@@ -125,9 +125,7 @@ public class SpaceController {
 
     LOGGER.info("Removing user '{}' from space '{}'", user.get().getName(), space.get().getName());
 
-    User realUser = user.get();
-    realUser.getSpaces().remove(space.get());
-    userService.update(realUser);
+    userService.removeUserFromSpace(user.get(), space.get());
     return ResponseEntity.ok().build();
   }
 
@@ -1,64 +1,153 @@
 package de.seprojekt.se2019.g4.mimir.content.thumbnail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
-import org.apache.commons.io.IOUtils;
+import java.util.zip.GZIPOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.util.Assert;
 
 /**
- * This service offers helper methods for dealing with icons.
+ * This service offers helper methods for dealing with icons. All icons are loaded on startup: a
+ * file either contains an icon or the name of another file (an alias), the aliases are resolved
+ * once. The icons (and gzip compressed variants) are kept in memory, so looking up an icon doesn't
+ * need any I/O.
  */
 @Service
 public class IconDiscoverService {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(IconDiscoverService.class);
+  private static final String ICON_DIRECTORY = "icons/breeze-icons-dark/mimetypes/64/";
+  private static final String ICON_SUFFIX = ".svg";
+  private static final String UNKNOWN_ICON = "unknown";
+  private static final int MAX_ALIASES = 10;
+
+  private final Map<String, Icon> icons;
+
+  /**
+   * The icons are loaded by the constructor.
+   */
+  public IconDiscoverService() throws IOException {
+    Map<String, byte[]> files = new HashMap<>();
+    for (Resource resource : new PathMatchingResourcePatternResolver()
+        .getResources("classpath:" + ICON_DIRECTORY + "*" + ICON_SUFFIX)) {
+      String fileName = resource.getFilename();
+      try (InputStream inputStream = resource.getInputStream()) {
+        files.put(fileName.substring(0, fileName.length() - ICON_SUFFIX.length()),
+            inputStream.readAllBytes());
+      }
+    }
+
+    // icons with the same content (e.g. aliases of the same file) share one instance
+    Map<String, Icon> iconsByFile = new HashMap<>();
+    Map<String, Icon> icons = new HashMap<>();
+    for (String name : files.keySet()) {
+      resolve(name, files).ifPresent(fileName -> icons.put(name,
+          iconsByFile.computeIfAbsent(fileName, key -> new Icon(files.get(key)))));
+    }
+    this.icons = Map.copyOf(icons);
+    LOGGER.info("Loaded {} icons ({} aliases)", iconsByFile.size(),
+        icons.size() - iconsByFile.size());
+  }
 
   /**
-   * Return the icon for the given mediaType as an optional containing the ClassPathResource.
+   * Return the icon for the given mediaType or the icon for unknown types.
    */
-  public Optional<ClassPathResource> loadIconFor(MediaType mediaType) {
-    String iconName = mediaType.toString().replace("/", "-");
-    return loadIconFor(iconName);
+  public Optional<Icon> findIconFor(MediaType mediaType) {
+    Icon icon = mediaType == null ? null
+        : icons.get(mediaType.getType() + "-" + mediaType.getSubtype());
+    return Optional.ofNullable(icon).or(() -> Optional.ofNullable(icons.get(UNKNOWN_ICON)));
   }
 
   /**
-   * Return the icon for the given mimeType as an optional containing the ClassPathResource. The
-   * mimeType must not contain forward slashes ('/'). All forward slashes must be replaces with a
-   * minus ('-')
+   * Return the name of the file, which contains the icon with the given name (following the
+   * aliases), or an empty optional if the chain of aliases is broken.
    */
-  public Optional<ClassPathResource> loadIconFor(String mimeType) {
-    return tryToLoad(mimeType + ".svg", 0).or(() -> tryToLoad("unknown.svg", 0));
+  private static Optional<String> resolve(String name, Map<String, byte[]> files) {
+    for (int tries = 0; tries < MAX_ALIASES; tries++) {
+      byte[] content = files.get(name);
+      if (content == null) {
+        LOGGER.error("Can't find icon '{}'", name);
+        return Optional.empty();
+      }
+      if (content.length > 0 && content[0] == '<') {
+        return Optional.of(name);
+      }
+      String alias = new String(content, StandardCharsets.UTF_8).trim();
+      name = alias.endsWith(ICON_SUFFIX)
+          ? alias.substring(0, alias.length() - ICON_SUFFIX.length()) : alias;
+    }
+    LOGGER.error("Too many aliases for icon '{}'", name);
+    return Optional.empty();
   }
 
   /**
-   * Try to load the icon from file system. The difficulty: Either the file contains the icon or it
-   * contains the path to an other file.
-   *
-   * @param tries prevents an endless loop
+   * This class contains the content of an icon, its gzip compressed variant and their ETags.
    */
-  private Optional<ClassPathResource> tryToLoad(String name, int tries) {
-    Assert.isTrue(tries < 10, "too many tries");
+  public static class Icon {
+
+    private final byte[] content;
+    private final byte[] gzipContent;
+    private final String eTag;
+    private final String gzipETag;
+
+    private Icon(byte[] content) {
+      this.content = content;
+      try {
+        ByteArrayOutputStream gzipContent = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(gzipContent)) {
+          gzipOutputStream.write(content);
+        }
+        this.gzipContent = gzipContent.toByteArray();
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+          hex.append(String.format("%02x", hash[i]));
+        }
+        this.eTag = "\"" + hex + "\"";
+        this.gzipETag = "\"" + hex + "-gzip\"";
+      } catch (IOException | NoSuchAlgorithmException e) {
+        throw new IllegalStateException("Can't prepare icon", e);
+      }
+    }
+
+    /**
+     * Return the content of the icon. The array is shared and must not be modified.
+     */
+    public byte[] getContent() {
+      return content;
+    }
+
+    /**
+     * Return the gzip compressed content of the icon. The array is shared and must not be
+     * modified.
+     */
+    public byte[] getGzipContent() {
+      return gzipContent;
+    }
 
-    String path = "icons/breeze-icons-dark/mimetypes/64/" + name;
-    ClassPathResource resource = new ClassPathResource(path);
-    String content;
-    try (InputStream inputStream = resource.getInputStream()) {
-      content = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
-    } catch (IOException e) {
-      LOGGER.error("cant load icon", e);
-      return Optional.empty();
+    /**
+     * Return the strong ETag (with quotes) of the content.
+     */
+    public String getETag() {
+      return eTag;
     }
 
-    if (content.startsWith("<")) {
-      return Optional.of(resource);
+    /**
+     * Return the strong ETag (with quotes) of the gzip compressed content.
+     */
+    public String getGzipETag() {
+      return gzipETag;
     }
-    return tryToLoad(content, tries + 1);
   }
 }
@@ -1,28 +1,39 @@
 package de.seprojekt.se2019.g4.mimir.content.thumbnail;
 
-import javax.persistence.Basic;
 import javax.persistence.Column;
 import javax.persistence.Entity;
-import javax.persistence.FetchType;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.Lob;
+import javax.persistence.Index;
+import javax.persistence.Table;
 
 /**
  * This class defines how the table thumbnail should look like (which columns, which primary/foreign
  * keys etc.) The result of a thumbnail table query will be mapped on objects from this class.
+ * Thumbnails belong to content (identified by its hash), so artifacts with the same content share
+ * one thumbnail per {@link ThumbnailRendition}. The image itself is stored in the blob store, so
+ * loading thumbnails will not load their content.
  */
 @Entity
+@Table(indexes = @Index(columnList = "contentHash"))
 public class Thumbnail {
 
   @Id
   @GeneratedValue(strategy = GenerationType.AUTO)
   private Long id;
 
-  @Lob
-  @Basic(fetch = FetchType.LAZY)
-  private byte[] content;
+  @Column(length = 64)
+  private String contentHash;
+
+  @Column(length = 16)
+  @Enumerated(EnumType.STRING)
+  private ThumbnailRendition rendition;
+
+  @Column(length = 64)
+  private String blobHash;
 
   @Column
   private Long contentLength;
@@ -35,6 +46,22 @@ public class Thumbnail {
     this.id = id;
   }
 
+  public String getContentHash() {
+    return contentHash;
+  }
+
+  public void setContentHash(String contentHash) {
+    this.contentHash = contentHash;
+  }
+
+  public ThumbnailRendition getRendition() {
+    return rendition;
+  }
+
+  public void setRendition(ThumbnailRendition rendition) {
+    this.rendition = rendition;
+  }
+
   public Long getContentLength() {
     return contentLength;
   }
@@ -43,11 +70,11 @@ public class Thumbnail {
     this.contentLength = contentLength;
   }
 
-  public byte[] getContent() {
-    return content;
+  public String getBlobHash() {
+    return blobHash;
   }
 
-  public void setContent(byte[] content) {
-    this.content = content;
+  public void setBlobHash(String blobHash) {
+    this.blobHash = blobHash;
   }
 }
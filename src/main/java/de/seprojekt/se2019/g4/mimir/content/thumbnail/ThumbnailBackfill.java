@@ -0,0 +1,129 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+import java.time.Instant;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+/**
+ * This class defines how the table thumbnail_backfill should look like (which columns, which
+ * primary/foreign keys etc.) A backfill generates the thumbnails of all artifacts in the order of
+ * their ids. The id of the last processed artifact is stored as checkpoint, so an interrupted
+ * backfill can be resumed.
+ */
+@Entity
+public class ThumbnailBackfill {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.AUTO)
+  private Long id;
+
+  @Column
+  private boolean regenerate;
+
+  @Column
+  private long lastArtifactId;
+
+  @Column
+  private long processedArtifacts;
+
+  @Column
+  private long generatedThumbnails;
+
+  @Column
+  private long failedThumbnails;
+
+  @Column
+  private Instant creationDate;
+
+  @Column
+  private Instant finishDate;
+
+  public ThumbnailBackfill() {
+  }
+
+  public ThumbnailBackfill(boolean regenerate) {
+    this.regenerate = regenerate;
+    this.creationDate = Instant.now();
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public boolean isRegenerate() {
+    return regenerate;
+  }
+
+  public void setRegenerate(boolean regenerate) {
+    this.regenerate = regenerate;
+  }
+
+  public long getLastArtifactId() {
+    return lastArtifactId;
+  }
+
+  public void setLastArtifactId(long lastArtifactId) {
+    this.lastArtifactId = lastArtifactId;
+  }
+
+  public long getProcessedArtifacts() {
+    return processedArtifacts;
+  }
+
+  public void setProcessedArtifacts(long processedArtifacts) {
+    this.processedArtifacts = processedArtifacts;
+  }
+
+  public long getGeneratedThumbnails() {
+    return generatedThumbnails;
+  }
+
+  public void setGeneratedThumbnails(long generatedThumbnails) {
+    this.generatedThumbnails = generatedThumbnails;
+  }
+
+  public long getFailedThumbnails() {
+    return failedThumbnails;
+  }
+
+  public void setFailedThumbnails(long failedThumbnails) {
+    this.failedThumbnails = failedThumbnails;
+  }
+
+  public Instant getCreationDate() {
+    return creationDate;
+  }
+
+  public void setCreationDate(Instant creationDate) {
+    this.creationDate = creationDate;
+  }
+
+  public Instant getFinishDate() {
+    return finishDate;
+  }
+
+  public void setFinishDate(Instant finishDate) {
+    this.finishDate = finishDate;
+  }
+
+  @Override
+  public String toString() {
+    return "ThumbnailBackfill{" +
+        "id=" + id +
+        ", regenerate=" + regenerate +
+        ", lastArtifactId=" + lastArtifactId +
+        ", processedArtifacts=" + processedArtifacts +
+        ", generatedThumbnails=" + generatedThumbnails +
+        ", failedThumbnails=" + failedThumbnails +
+        ", creationDate=" + creationDate +
+        ", finishDate=" + finishDate +
+        '}';
+  }
+}
@@ -0,0 +1,75 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+import de.seprojekt.se2019.g4.mimir.security.user.UserService;
+import java.security.Principal;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * This controller will offer an HTTP interface for administrators to start, stop and watch
+ * thumbnail backfills.
+ */
+@Controller
+public class ThumbnailBackfillController {
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(ThumbnailBackfillController.class);
+
+  private ThumbnailBackfillService thumbnailBackfillService;
+  private UserService userService;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public ThumbnailBackfillController(ThumbnailBackfillService thumbnailBackfillService,
+      UserService userService) {
+    this.thumbnailBackfillService = thumbnailBackfillService;
+    this.userService = userService;
+  }
+
+  /**
+   * Start a backfill (or resume the last one, if it wasn't finished). With regenerate=true the
+   * existing thumbnails are generated again, otherwise only missing thumbnails are generated.
+   */
+  @PostMapping(value = "/thumbnails/backfill")
+  public ResponseEntity<ThumbnailBackfillDTO> start(
+      @RequestParam(name = "regenerate", required = false) boolean regenerate,
+      Principal principal) {
+    if (!userService.isAdmin(principal)) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    LOGGER.info("User '{}' started a thumbnail backfill", principal.getName());
+    return ResponseEntity.ok(thumbnailBackfillService.start(regenerate));
+  }
+
+  /**
+   * Return the progress of the last backfill.
+   */
+  @GetMapping(value = "/thumbnails/backfill")
+  public ResponseEntity<ThumbnailBackfillDTO> getProgress(Principal principal) {
+    if (!userService.isAdmin(principal)) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    return ResponseEntity.of(thumbnailBackfillService.findProgress());
+  }
+
+  /**
+   * Stop the running backfill after the current page of artifacts.
+   */
+  @DeleteMapping(value = "/thumbnails/backfill")
+  public ResponseEntity<ThumbnailBackfillDTO> stop(Principal principal) {
+    if (!userService.isAdmin(principal)) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    Optional<ThumbnailBackfillDTO> progress = thumbnailBackfillService.stop();
+    LOGGER.info("User '{}' stopped the thumbnail backfill", principal.getName());
+    return ResponseEntity.of(progress);
+  }
+}
@@ -0,0 +1,56 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+/**
+ * This class acts as a data transfer object for backfills to add their current progress (whether
+ * they are running, their throughput and the estimated remaining time).
+ */
+public class ThumbnailBackfillDTO extends ThumbnailBackfill {
+
+  private boolean running;
+  private long remainingArtifacts;
+  private double artifactsPerSecond;
+  private Long estimatedSecondsRemaining;
+
+  public ThumbnailBackfillDTO(ThumbnailBackfill backfill) {
+    this.setId(backfill.getId());
+    this.setRegenerate(backfill.isRegenerate());
+    this.setLastArtifactId(backfill.getLastArtifactId());
+    this.setProcessedArtifacts(backfill.getProcessedArtifacts());
+    this.setGeneratedThumbnails(backfill.getGeneratedThumbnails());
+    this.setFailedThumbnails(backfill.getFailedThumbnails());
+    this.setCreationDate(backfill.getCreationDate());
+    this.setFinishDate(backfill.getFinishDate());
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public void setRunning(boolean running) {
+    this.running = running;
+  }
+
+  public long getRemainingArtifacts() {
+    return remainingArtifacts;
+  }
+
+  public void setRemainingArtifacts(long remainingArtifacts) {
+    this.remainingArtifacts = remainingArtifacts;
+  }
+
+  public double getArtifactsPerSecond() {
+    return artifactsPerSecond;
+  }
+
+  public void setArtifactsPerSecond(double artifactsPerSecond) {
+    this.artifactsPerSecond = artifactsPerSecond;
+  }
+
+  public Long getEstimatedSecondsRemaining() {
+    return estimatedSecondsRemaining;
+  }
+
+  public void setEstimatedSecondsRemaining(Long estimatedSecondsRemaining) {
+    this.estimatedSecondsRemaining = estimatedSecondsRemaining;
+  }
+}
@@ -0,0 +1,14 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+/**
+ * This interface will be implemented by Spring Data JPA. The implementation will help us to store
+ * {@link ThumbnailBackfill} in the database and execute CRUD (create, read, update, delete)
+ * operation on the database.
+ */
+public interface ThumbnailBackfillRepository extends JpaRepository<ThumbnailBackfill, Long> {
+
+  Optional<ThumbnailBackfill> findFirstByOrderByIdDesc();
+}
@@ -0,0 +1,222 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
+import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * This service generates the thumbnails of all existing artifacts, e.g. after the generator was
+ * changed or for artifacts which were uploaded before their type was supported. The artifacts are
+ * walked in the order of their ids, one page at a time (keyset pagination); the contents of a page
+ * are processed by a pool of worker threads (property app.thumbnailBackfillThreads), which is
+ * separate from the pool for new uploads (no jobs are stored, so the upload workers never pick up
+ * the work of the backfill). After each page the progress is stored as checkpoint, so a stopped or
+ * interrupted backfill can be resumed.
+ *
+ * <p>Only one backfill runs at a time. The metric thumbnail.backfill (tag 'result': generated,
+ * skipped or failed) counts the processed contents.
+ */
+@Service
+public class ThumbnailBackfillService {
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(ThumbnailBackfillService.class);
+  private static final int PAGE_SIZE = 100;
+
+  private ThumbnailBackfillRepository thumbnailBackfillRepository;
+  private ThumbnailService thumbnailService;
+  private ArtifactService artifactService;
+  private ExecutorService coordinator;
+  private ExecutorService workers;
+  private Counter generated;
+  private Counter skipped;
+  private Counter failed;
+  // guarded by this
+  private Long runningBackfillId;
+  private volatile boolean stopRequested;
+  private volatile long startTime;
+  private volatile long processedSinceStart;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public ThumbnailBackfillService(
+      ThumbnailBackfillRepository thumbnailBackfillRepository,
+      ThumbnailService thumbnailService,
+      ArtifactService artifactService,
+      MeterRegistry meterRegistry,
+      @Value("${app.thumbnailBackfillThreads}") int threads) {
+    this.thumbnailBackfillRepository = thumbnailBackfillRepository;
+    this.thumbnailService = thumbnailService;
+    this.artifactService = artifactService;
+    this.coordinator = Executors
+        .newSingleThreadExecutor(new CustomizableThreadFactory("thumbnail-backfill-"));
+    this.workers = Executors
+        .newFixedThreadPool(threads, new CustomizableThreadFactory("thumbnail-backfill-worker-"));
+    this.generated = meterRegistry.counter("thumbnail.backfill", "result", "generated");
+    this.skipped = meterRegistry.counter("thumbnail.backfill", "result", "skipped");
+    this.failed = meterRegistry.counter("thumbnail.backfill", "result", "failed");
+  }
+
+  /**
+   * Start a backfill or resume the last one, if it wasn't finished. If regenerate is true, existing
+   * thumbnails are generated again, otherwise only missing thumbnails are generated (only used for
+   * new backfills). Nothing happens, if a backfill is running already.
+   */
+  public synchronized ThumbnailBackfillDTO start(boolean regenerate) {
+    if (runningBackfillId == null) {
+      ThumbnailBackfill backfill = thumbnailBackfillRepository.findFirstByOrderByIdDesc()
+          .filter(lastBackfill -> lastBackfill.getFinishDate() == null)
+          .orElseGet(() -> thumbnailBackfillRepository.save(new ThumbnailBackfill(regenerate)));
+      LOGGER.info("Starting thumbnail backfill {}", backfill);
+      runningBackfillId = backfill.getId();
+      stopRequested = false;
+      startTime = System.nanoTime();
+      processedSinceStart = 0;
+      coordinator.execute(() -> run(backfill.getId()));
+    }
+    return findProgress().orElseThrow();
+  }
+
+  /**
+   * Stop the running backfill after the current page. It can be resumed with {@link
+   * #start(boolean)}.
+   */
+  public synchronized Optional<ThumbnailBackfillDTO> stop() {
+    if (runningBackfillId != null) {
+      stopRequested = true;
+    }
+    return findProgress();
+  }
+
+  /**
+   * Return the progress of the last backfill, if there is one.
+   */
+  public synchronized Optional<ThumbnailBackfillDTO> findProgress() {
+    Optional<ThumbnailBackfill> backfill = thumbnailBackfillRepository.findFirstByOrderByIdDesc();
+    if (backfill.isEmpty()) {
+      return Optional.empty();
+    }
+    ThumbnailBackfillDTO progress = new ThumbnailBackfillDTO(backfill.get());
+    progress.setRunning(backfill.get().getId().equals(runningBackfillId));
+    progress.setRemainingArtifacts(backfill.get().getFinishDate() != null ? 0
+        : artifactService.countAfter(backfill.get().getLastArtifactId()));
+    if (progress.isRunning()) {
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      progress.setArtifactsPerSecond(processedSinceStart / seconds);
+      if (processedSinceStart > 0) {
+        progress.setEstimatedSecondsRemaining(
+            (long) (progress.getRemainingArtifacts() / progress.getArtifactsPerSecond()));
+      }
+    }
+    return Optional.of(progress);
+  }
+
+  /**
+   * Process the artifacts page by page, until all artifacts were processed or the backfill was
+   * stopped.
+   */
+  private void run(long backfillId) {
+    try {
+      ThumbnailBackfill backfill = thumbnailBackfillRepository.findById(backfillId).orElseThrow();
+      while (!stopRequested) {
+        List<Artifact> page = artifactService
+            .findPageAfter(backfill.getLastArtifactId(), PAGE_SIZE);
+        if (page.isEmpty()) {
+          backfill.setFinishDate(Instant.now());
+          thumbnailBackfillRepository.save(backfill);
+          LOGGER.info("Finished thumbnail backfill {}", backfill);
+          return;
+        }
+
+        // artifacts with the same content are processed once
+        Map<String, MediaType> contents = new LinkedHashMap<>();
+        for (Artifact artifact : page) {
+          contents.putIfAbsent(artifact.getContentHash(), artifact.getContentType());
+        }
+        boolean regenerate = backfill.isRegenerate();
+        List<Future<Result>> results = new ArrayList<>();
+        for (Map.Entry<String, MediaType> content : contents.entrySet()) {
+          results.add(workers.submit(() -> process(content.getKey(), content.getValue(),
+              regenerate)));
+        }
+        for (Future<Result> result : results) {
+          switch (result.get()) {
+            case GENERATED:
+              backfill.setGeneratedThumbnails(backfill.getGeneratedThumbnails() + 1);
+              break;
+            case FAILED:
+              backfill.setFailedThumbnails(backfill.getFailedThumbnails() + 1);
+              break;
+            default:
+              break;
+          }
+        }
+
+        // checkpoint: the page won't be processed again
+        backfill.setLastArtifactId(page.get(page.size() - 1).getId());
+        backfill.setProcessedArtifacts(backfill.getProcessedArtifacts() + page.size());
+        backfill = thumbnailBackfillRepository.save(backfill);
+        processedSinceStart += page.size();
+      }
+      LOGGER.info("Stopped thumbnail backfill {}", backfill);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | RuntimeException e) {
+      LOGGER.error("Thumbnail backfill {} failed", backfillId, e);
+    } finally {
+      synchronized (this) {
+        runningBackfillId = null;
+      }
+    }
+  }
+
+  /**
+   * Generate the thumbnail of the content with the given hash (executed by a worker). Content
+   * with a pending job is skipped, the upload workers generate its thumbnail.
+   */
+  private Result process(String contentHash, MediaType contentType, boolean regenerate) {
+    try {
+      if (!thumbnailService.needsThumbnail(contentHash, contentType, regenerate)) {
+        skipped.increment();
+        return Result.SKIPPED;
+      }
+      if (thumbnailService.generateWithoutJob(contentHash, contentType)) {
+        generated.increment();
+        return Result.GENERATED;
+      }
+    } catch (RuntimeException e) {
+      LOGGER.warn("Can't generate thumbnail for content {}", contentHash, e);
+    }
+    failed.increment();
+    return Result.FAILED;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    // the current page will be processed again, when the backfill is resumed
+    coordinator.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  private enum Result {
+    GENERATED, SKIPPED, FAILED
+  }
+}
@@ -0,0 +1,158 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * This service keeps the images of recently requested thumbnails in memory. The images are
+ * identified by the hash of the content they belong to and their rendition, so an artifact with
+ * replaced content never gets the old image. If the total size of the images exceeds the limit
+ * (property app.thumbnailCacheMaxBytes), the least recently used images are removed.
+ *
+ * <p>Replaced or deleted thumbnails are removed at once and again after the transaction was
+ * completed. An image is only added, if no thumbnail was invalidated since it was loaded from the
+ * database (see {@link #getGeneration()}), so an image loaded before the commit isn't cached
+ * afterwards.
+ *
+ * <p>The metric thumbnail.cache (tag 'result': hit or miss) shows how often cached images were
+ * used, the metrics thumbnail.cache.size and thumbnail.cache.entries the total size and number of
+ * the cached images.
+ */
+@Service
+public class ThumbnailCache {
+
+  private long maxBytes;
+  private Counter hits;
+  private Counter misses;
+  // guarded by this, the iteration order is the access order (least recently used first)
+  private final Map<String, Image> images = new LinkedHashMap<>(16, 0.75f, true);
+  private volatile long totalBytes;
+  // guarded by this, incremented by every invalidation
+  private long generation;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public ThumbnailCache(
+      @Value("${app.thumbnailCacheMaxBytes}") long maxBytes,
+      MeterRegistry meterRegistry) {
+    this.maxBytes = maxBytes;
+    this.hits = meterRegistry.counter("thumbnail.cache", "result", "hit");
+    this.misses = meterRegistry.counter("thumbnail.cache", "result", "miss");
+    meterRegistry.gauge("thumbnail.cache.size", this, cache -> cache.totalBytes);
+    meterRegistry.gauge("thumbnail.cache.entries", this, ThumbnailCache::size);
+  }
+
+  /**
+   * Return the cached image of the thumbnail of the content with the given hash.
+   */
+  public synchronized Optional<Image> get(String contentHash, ThumbnailRendition rendition) {
+    Image image = images.get(key(contentHash, rendition));
+    if (image == null) {
+      misses.increment();
+      return Optional.empty();
+    }
+    hits.increment();
+    return Optional.of(image);
+  }
+
+  /**
+   * Return the current generation. It has to be read before the thumbnail is loaded from the
+   * database and passed to {@link #put(String, ThumbnailRendition, Image, long)}.
+   */
+  public synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Add the image of the thumbnail of the content with the given hash and remove the least
+   * recently used images, until the total size is below the limit. The image is not added, if a
+   * thumbnail was invalidated since the given generation (the image may be outdated).
+   */
+  public synchronized void put(String contentHash, ThumbnailRendition rendition, Image image,
+      long loadGeneration) {
+    if (image.content.length > maxBytes || generation != loadGeneration) {
+      return;
+    }
+    Image previousImage = images.put(key(contentHash, rendition), image);
+    long total = totalBytes + image.content.length
+        - (previousImage == null ? 0 : previousImage.content.length);
+    Iterator<Image> iterator = images.values().iterator();
+    while (total > maxBytes) {
+      total -= iterator.next().content.length;
+      iterator.remove();
+    }
+    totalBytes = total;
+  }
+
+  /**
+   * Remove the images of all renditions of the thumbnail of the content with the given hash (e.g.
+   * because the thumbnail was deleted). Inside of a transaction the images are removed again after
+   * the transaction was completed, because other threads may have cached the old images meanwhile.
+   */
+  public void invalidate(String contentHash) {
+    evict(contentHash);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          evict(contentHash);
+        }
+      });
+    }
+  }
+
+  private synchronized void evict(String contentHash) {
+    generation++;
+    for (ThumbnailRendition rendition : ThumbnailRendition.values()) {
+      Image image = images.remove(key(contentHash, rendition));
+      if (image != null) {
+        totalBytes -= image.content.length;
+      }
+    }
+  }
+
+  private synchronized int size() {
+    return images.size();
+  }
+
+  private static String key(String contentHash, ThumbnailRendition rendition) {
+    return contentHash + "-" + rendition;
+  }
+
+  /**
+   * This class contains the image of a thumbnail and its ETag.
+   */
+  public static class Image {
+
+    private final byte[] content;
+    private final String eTag;
+
+    public Image(byte[] content, String eTag) {
+      this.content = content;
+      this.eTag = eTag;
+    }
+
+    /**
+     * Return the content of the image. The array is shared and must not be modified.
+     */
+    public byte[] getContent() {
+      return content;
+    }
+
+    /**
+     * Return the strong ETag (with quotes) of the image.
+     */
+    public String getETag() {
+      return eTag;
+    }
+  }
+}
@@ -2,22 +2,37 @@ package de.seprojekt.se2019.g4.mimir.content.thumbnail;
 
 import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
 import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.IconDiscoverService.Icon;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailCache.Image;
 import de.seprojekt.se2019.g4.mimir.security.user.UserService;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import javax.persistence.EntityNotFoundException;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.InputStreamResource;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.ResponseEntity.BodyBuilder;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
 
 /**
  * This controller will offer an HTTP interface for the security page to load thumbnails.
@@ -25,9 +40,15 @@ import org.springframework.web.bind.annotation.ResponseBody;
 @Controller
 public class ThumbnailController {
 
+  private static final MediaType SVG = MediaType.valueOf("image/svg+xml");
+  private static final String MULTIPART_MIXED = "multipart/mixed; boundary=";
+
   private IconDiscoverService iconDiscoverService;
   private ArtifactService artifactService;
   private UserService userService;
+  private ThumbnailCache thumbnailCache;
+  private long maxAgeSeconds;
+  private int maxBatchSize;
 
   /**
    * The parameters will be autowired by Spring.
@@ -35,19 +56,35 @@ public class ThumbnailController {
   public ThumbnailController(
       IconDiscoverService iconDiscoverService,
       ArtifactService artifactService,
-      UserService userService) {
+      UserService userService,
+      ThumbnailCache thumbnailCache,
+      @Value("${app.thumbnailMaxAgeSeconds}") long maxAgeSeconds,
+      @Value("${app.thumbnailBatchMaxSize}") int maxBatchSize) {
     this.iconDiscoverService = iconDiscoverService;
     this.artifactService = artifactService;
     this.userService = userService;
+    this.thumbnailCache = thumbnailCache;
+    this.maxAgeSeconds = maxAgeSeconds;
+    this.maxBatchSize = maxBatchSize;
   }
 
   /**
    * This method will be called, when the security page will access the given url and match certain
-   * criteria. It will return the thumbnail for the artifact with the given id.
+   * criteria. It will return the thumbnail for the artifact with the given id in the given
+   * rendition (e.g. 'list', 'grid' or 'preview', see {@link ThumbnailRendition}; the default
+   * rendition, if none is given).
    */
   @GetMapping(value = "/thumbnail/{id}", produces = MediaType.IMAGE_JPEG_VALUE)
   @ResponseBody
-  public ResponseEntity getThumbnail(@PathVariable Long id, Principal principal) {
+  public ResponseEntity getThumbnail(@PathVariable Long id,
+      @RequestParam(name = "rendition", required = false) String renditionName,
+      @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+      Principal principal) throws IOException {
+    Optional<ThumbnailRendition> rendition = renditionName == null
+        ? Optional.of(ThumbnailRendition.DEFAULT) : ThumbnailRendition.findByName(renditionName);
+    if (rendition.isEmpty()) {
+      return ResponseEntity.badRequest().build();
+    }
     Optional<Artifact> artifact = artifactService.findById(id);
     if (artifact.isEmpty()) {
       return ResponseEntity.notFound().build();
@@ -55,32 +92,162 @@ public class ThumbnailController {
     if (!userService.isAuthorizedForArtifact(artifact.get(), principal)) {
       return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
     }
-    return artifactService.findThumbnail(artifact.get())
-        .map(thumbnailInputStream -> returnRealThumbnail(thumbnailInputStream, artifact.get()))
-        .orElseGet(() -> fallbackToIcon(artifact.get().getContentType()));
+    String contentHash = artifact.get().getContentHash();
+    Optional<Image> cachedImage = thumbnailCache.get(contentHash, rendition.get());
+    if (cachedImage.isPresent()) {
+      return returnRealThumbnail(cachedImage.get());
+    }
+    long cacheGeneration = thumbnailCache.getGeneration();
+
+    Optional<Thumbnail> thumbnail = artifactService.findThumbnail(artifact.get(), rendition.get());
+    if (thumbnail.isEmpty()) {
+      return fallbackToIcon(artifact.get().getContentType(),
+          artifactService.isThumbnailPending(artifact.get()), acceptsGzip(acceptEncoding));
+    }
+    return returnRealThumbnail(
+        loadImage(contentHash, rendition.get(), thumbnail.get(), cacheGeneration));
+  }
+
+  /**
+   * Return the thumbnails of the artifacts with the given ids (comma separated) in one
+   * multipart/mixed response, e.g. for displaying a folder. Each part contains the thumbnail (or
+   * the icon) of one artifact, its header Content-ID contains the id of the artifact (e.g. '<42>').
+   * Artifacts which don't exist or which the user isn't authorized for are left out. All artifacts
+   * and thumbnails are loaded with one query each and the authorization is checked once per space.
+   * Renditions which weren't generated yet are not generated here (that's done by
+   * /thumbnail/{id}), the parts of their artifacts contain the icon instead.
+   */
+  @GetMapping(value = "/thumbnails")
+  public void getThumbnails(@RequestParam("ids") List<Long> ids,
+      @RequestParam(name = "rendition", required = false) String renditionName,
+      Principal principal, HttpServletResponse response) throws IOException {
+    Optional<ThumbnailRendition> rendition = renditionName == null
+        ? Optional.of(ThumbnailRendition.DEFAULT) : ThumbnailRendition.findByName(renditionName);
+    if (rendition.isEmpty() || ids.size() > maxBatchSize) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+    }
+    Map<Long, Artifact> artifacts = new HashMap<>();
+    for (Artifact artifact : userService
+        .filterAuthorizedArtifacts(artifactService.findAllById(ids), principal)) {
+      artifacts.put(artifact.getId(), artifact);
+    }
+    long cacheGeneration = thumbnailCache.getGeneration();
+    Map<String, Thumbnail> thumbnails = artifactService
+        .findThumbnails(artifacts.values(), rendition.get());
+
+    String boundary = UUID.randomUUID().toString().replace("-", "");
+    // the parts change while thumbnails are being generated, they are cached by their ETags
+    response.setContentType(MULTIPART_MIXED + boundary);
+    response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+    OutputStream outputStream = response.getOutputStream();
+    for (Long id : new LinkedHashSet<>(ids)) {
+      Artifact artifact = artifacts.get(id);
+      if (artifact == null) {
+        continue;
+      }
+      String contentHash = artifact.getContentHash();
+      Optional<Image> image = thumbnailCache.get(contentHash, rendition.get());
+      if (image.isEmpty() && thumbnails.containsKey(contentHash)) {
+        image = Optional.of(loadImage(contentHash, rendition.get(), thumbnails.get(contentHash),
+            cacheGeneration));
+      }
+      if (image.isPresent()) {
+        writePart(outputStream, boundary, id, MediaType.IMAGE_JPEG, image.get().getETag(),
+            image.get().getContent());
+      } else {
+        Icon icon = iconDiscoverService.findIconFor(artifact.getContentType())
+            .orElseThrow(EntityNotFoundException::new);
+        writePart(outputStream, boundary, id, SVG, icon.getETag(), icon.getContent());
+      }
+    }
+    outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Write one part of a multipart/mixed response.
+   */
+  private static void writePart(OutputStream outputStream, String boundary, long artifactId,
+      MediaType contentType, String eTag, byte[] content) throws IOException {
+    String partHeader = "\r\n--" + boundary + "\r\n"
+        + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+        + HttpHeaders.CONTENT_LENGTH + ": " + content.length + "\r\n"
+        + HttpHeaders.ETAG + ": " + eTag + "\r\n"
+        + "Content-ID: <" + artifactId + ">\r\n\r\n";
+    outputStream.write(partHeader.getBytes(StandardCharsets.US_ASCII));
+    outputStream.write(content);
+  }
+
+  /**
+   * Load the image of the given thumbnail and add it to the cache (unless a thumbnail was
+   * invalidated since the given cache generation).
+   */
+  private Image loadImage(String contentHash, ThumbnailRendition rendition, Thumbnail thumbnail,
+      long cacheGeneration) throws IOException {
+    Image image;
+    try (InputStream content = artifactService.findThumbnailContent(thumbnail)) {
+      // the image is stored by its hash, so the hash identifies the image
+      image = new Image(content.readAllBytes(), "\"" + thumbnail.getBlobHash() + "\"");
+    }
+    thumbnailCache.put(contentHash, rendition, image, cacheGeneration);
+    return image;
   }
 
   /**
-   * Return the real thumbnail with the correct contentType etc.
+   * Return the real thumbnail with the correct contentType etc. It may be cached for a long time
+   * (property app.thumbnailMaxAgeSeconds), afterwards it is revalidated with its ETag - requests
+   * with a matching If-None-Match header are answered with 304 Not Modified by Spring.
    */
-  private ResponseEntity returnRealThumbnail(InputStream thumbnailInputStream, Artifact artifact) {
+  private ResponseEntity returnRealThumbnail(Image image) {
     return ResponseEntity.ok()
         .contentType(MediaType.IMAGE_JPEG)
-        .contentLength(artifact.getThumbnail().getContentLength())
-        .cacheControl(CacheControl.maxAge(60, TimeUnit.MINUTES).cachePublic())
-        // InputStreamResource will close the InputStream
-        .body(new InputStreamResource(thumbnailInputStream));
+        .contentLength(image.getContent().length)
+        .eTag(image.getETag())
+        .cacheControl(CacheControl.maxAge(maxAgeSeconds, TimeUnit.SECONDS).cachePublic())
+        .body(image.getContent());
   }
 
   /**
-   * Return the icon for the given mediaType as fallback thumbnail.
+   * Return the icon for the given mediaType as fallback thumbnail (gzip compressed, if the client
+   * accepts it). If the real thumbnail is being generated, the icon must not be cached. Requests
+   * with a matching If-None-Match header are answered with 304 Not Modified by Spring.
    */
-  private ResponseEntity fallbackToIcon(MediaType mediaType) {
-    ClassPathResource resource = iconDiscoverService.loadIconFor(mediaType)
+  private ResponseEntity fallbackToIcon(MediaType mediaType, boolean thumbnailPending,
+      boolean gzip) {
+    Icon icon = iconDiscoverService.findIconFor(mediaType)
         .orElseThrow(EntityNotFoundException::new);
-    return ResponseEntity.ok()
-        .contentType(MediaType.valueOf("image/svg+xml"))
-        .cacheControl(CacheControl.maxAge(60, TimeUnit.MINUTES).cachePublic())
-        .body(resource);
+    BodyBuilder response = ResponseEntity.ok()
+        .contentType(SVG)
+        .cacheControl(thumbnailPending ? CacheControl.noCache()
+            : CacheControl.maxAge(60, TimeUnit.MINUTES).cachePublic())
+        .varyBy(HttpHeaders.ACCEPT_ENCODING);
+    if (gzip) {
+      return response
+          .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+          .eTag(icon.getGzipETag())
+          .contentLength(icon.getGzipContent().length)
+          .body(icon.getGzipContent());
+    }
+    return response
+        .eTag(icon.getETag())
+        .contentLength(icon.getContent().length)
+        .body(icon.getContent());
+  }
+
+  /**
+   * Check if the given Accept-Encoding header allows gzip (e.g. 'gzip, deflate, br').
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parameters = coding.split(";");
+      String name = parameters[0].trim();
+      if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+        // 'gzip;q=0' means that gzip is not acceptable
+        return parameters.length < 2 || !parameters[1].trim().matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
   }
 }
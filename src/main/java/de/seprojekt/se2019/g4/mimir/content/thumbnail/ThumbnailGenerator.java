@@ -7,27 +7,48 @@ import static org.springframework.http.MediaType.IMAGE_JPEG;
 import static org.springframework.http.MediaType.IMAGE_PNG;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
 import javax.imageio.ImageIO;
-import org.apache.commons.io.IOUtils;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.imgscalr.Scalr;
 import org.jcodec.api.FrameGrab;
 import org.jcodec.api.JCodecException;
+import org.jcodec.common.io.FileChannelWrapper;
+import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.model.Picture;
 import org.jcodec.scale.AWTUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.util.MimeType;
 
@@ -37,9 +58,45 @@ import org.springframework.util.MimeType;
 @Service
 public class ThumbnailGenerator {
 
-  private static final int THUMBNAIL_SIZE = 2 * 200;
   private static final MediaType VIDEO = MediaType.valueOf("video/*");
   private final static Logger LOGGER = LoggerFactory.getLogger(ThumbnailGenerator.class);
+  // values for estimating the memory: pixels of a video with unknown dimensions (Full HD) and the
+  // bytes per pixel for the decoded frame, the reference frames of the decoder and the converted
+  // images
+  private static final int BYTES_PER_PIXEL = 4;
+  private static final long DEFAULT_VIDEO_PIXELS = 1920 * 1080;
+  private static final int VIDEO_BYTES_PER_PIXEL = 16;
+  // boxes of a MP4 file which are read at most for finding the dimensions of the video
+  private static final int MAX_MP4_BOXES = 1000;
+
+  private long maxPixels;
+  private long pdfMainMemoryBytes;
+  private long pdfTimeoutMs;
+  private int videoFrame;
+  private long videoTimeoutMs;
+  private ScheduledExecutorService timeoutExecutor;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public ThumbnailGenerator(
+      @Value("${app.thumbnailMaxPixels}") long maxPixels,
+      @Value("${app.thumbnailPdfMainMemoryBytes}") long pdfMainMemoryBytes,
+      @Value("${app.thumbnailPdfTimeoutMs}") long pdfTimeoutMs,
+      @Value("${app.thumbnailVideoFrame}") int videoFrame,
+      @Value("${app.thumbnailVideoTimeoutMs}") long videoTimeoutMs) {
+    this.maxPixels = maxPixels;
+    this.pdfMainMemoryBytes = pdfMainMemoryBytes;
+    this.pdfTimeoutMs = pdfTimeoutMs;
+    this.videoFrame = videoFrame;
+    this.videoTimeoutMs = videoTimeoutMs;
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("thumbnail-timeout-");
+    threadFactory.setDaemon(true);
+    ScheduledThreadPoolExecutor timeoutExecutor = new ScheduledThreadPoolExecutor(1,
+        threadFactory);
+    timeoutExecutor.setRemoveOnCancelPolicy(true);
+    this.timeoutExecutor = timeoutExecutor;
+  }
 
   /**
    * Returns if the {@link ThumbnailGenerator} should be able to generate a thumbnail.
@@ -53,114 +110,348 @@ public class ThumbnailGenerator {
   }
 
   /**
-   * Try to generate a thumbnail for the given source file and return it. If the mime type is not
-   * supported or an exception occurs, the method will return an empty optional.
+   * Try to generate a thumbnail (of the default rendition) for the given source file and return
+   * it. If the mime type is not supported or an exception occurs, the method will return an empty
+   * optional.
    */
   public Optional<InputStream> generateThumbnail(InputStream source, MediaType mediaType) {
+    return generateThumbnail(source, mediaType, ThumbnailRendition.DEFAULT.getSize());
+  }
+
+  /**
+   * Try to generate a thumbnail with the given size (width and height in pixels) for the given
+   * source file and return it. If the mime type is not supported or an exception occurs, the method
+   * will return an empty optional. Videos are not supported, because they are read with random
+   * access - use {@link #generateThumbnail(Path, MediaType, int)} for them.
+   */
+  public Optional<InputStream> generateThumbnail(InputStream source, MediaType mediaType,
+      int size) {
     Objects.requireNonNull(source, "source must not be null");
     Objects.requireNonNull(mediaType, "mediaType must not be null");
-    if (IMAGE_JPEG.isCompatibleWith(mediaType) || IMAGE_GIF.isCompatibleWith(mediaType)) {
-      return generateFromImage(source);
-    }
-
-    if (IMAGE_PNG.isCompatibleWith(mediaType)) {
-      return generateFromPng(source);
+    if (IMAGE_JPEG.isCompatibleWith(mediaType) || IMAGE_GIF.isCompatibleWith(mediaType)
+        || IMAGE_PNG.isCompatibleWith(mediaType)) {
+      return generateFromImage(source, size);
     }
 
     if (APPLICATION_PDF.isCompatibleWith(mediaType)) {
-      return generateFromPdf(source);
-    }
-
-    if (VIDEO.isCompatibleWith(mediaType)) {
-      return generateFromVideo(source);
+      return generateFromPdf(source, size);
     }
 
     return Optional.empty();
   }
 
   /**
-   * Try to generate a thumbnail for JPGs/GIFs.
+   * Try to generate a thumbnail with the given size (width and height in pixels) for the given file
+   * and return it. Videos are read directly from the file, other types are read as a stream. If the
+   * mime type is not supported or an exception occurs, the method will return an empty optional.
    */
-  private Optional<InputStream> generateFromImage(InputStream source) {
-    try {
-      BufferedImage original = ImageIO.read(source);
-      return resizeImage(original);
+  public Optional<InputStream> generateThumbnail(Path file, MediaType mediaType, int size) {
+    Objects.requireNonNull(file, "file must not be null");
+    Objects.requireNonNull(mediaType, "mediaType must not be null");
+    if (VIDEO.isCompatibleWith(mediaType)) {
+      return generateFromVideo(file, size);
+    }
+    try (InputStream source = Files.newInputStream(file)) {
+      return generateThumbnail(source, mediaType, size);
     } catch (IOException e) {
-      LOGGER.error("Can't create thumbnail for jpg/gif", e);
+      LOGGER.error("Can't read '{}'", file, e);
       return Optional.empty();
     }
   }
 
   /**
-   * Try to generate a thumbnail for PNGs. Taken from: https://memorynotfound.com/convert-png-to-jpg-image-file-using-java/
+   * Estimate the peak memory (in bytes) needed for generating a thumbnail with the given size for
+   * the given file. The estimation is based on the dimensions in the header of images and videos
+   * and on the file size of PDF documents (PDFBox buffers documents up to
+   * app.thumbnailPdfMainMemoryBytes in memory). The files are not decoded or parsed, because the
+   * estimation runs before the generation is admitted and without timeout.
    */
-  private Optional<InputStream> generateFromPng(InputStream source) {
+  public long estimateMemory(Path file, MediaType mediaType, int size) {
+    // resizing needs a few copies of images of the thumbnail size
+    long estimation = 4L * size * size * BYTES_PER_PIXEL;
     try {
-      BufferedImage original = ImageIO.read(source);
-      BufferedImage converted = new BufferedImage(original.getWidth(), original.getHeight(),
-          BufferedImage.TYPE_INT_RGB);
-      converted.createGraphics().drawImage(original, 0, 0, Color.WHITE, null);
-      return resizeImage(converted);
+      if (IMAGE_JPEG.isCompatibleWith(mediaType) || IMAGE_GIF.isCompatibleWith(mediaType)
+          || IMAGE_PNG.isCompatibleWith(mediaType)) {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(file.toFile())) {
+          Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+          if (readers.hasNext()) {
+            ImageReader reader = readers.next();
+            try {
+              reader.setInput(imageInputStream, true, true);
+              long width = reader.getWidth(0);
+              long height = reader.getHeight(0);
+              long subsampling = Math.max(1, Math.min(width, height) / size);
+              // the subsampled image and its RGB copy
+              estimation += 2 * (width / subsampling + 1) * (height / subsampling + 1)
+                  * BYTES_PER_PIXEL;
+            } finally {
+              reader.dispose();
+            }
+          }
+        }
+      } else if (APPLICATION_PDF.isCompatibleWith(mediaType)) {
+        // the page is rendered into an image of the thumbnail size
+        estimation += Math.min(Files.size(file), pdfMainMemoryBytes)
+            + (long) size * size * BYTES_PER_PIXEL;
+      } else if (VIDEO.isCompatibleWith(mediaType)) {
+        long pixels = 0;
+        try {
+          pixels = readVideoPixels(file);
+        } catch (IOException e) {
+          LOGGER.debug("Can't read video dimensions of '{}'", file, e);
+        }
+        estimation += (pixels > 0 ? pixels : DEFAULT_VIDEO_PIXELS) * VIDEO_BYTES_PER_PIXEL;
+      }
     } catch (IOException e) {
-      LOGGER.error("Can't create thumbnail for png", e);
+      LOGGER.warn("Can't estimate memory for thumbnail of '{}'", file, e);
+    }
+    return estimation;
+  }
+
+  /**
+   * Read the dimensions of a video track from the track header (tkhd box) of the given MP4 file
+   * and return its number of pixels (0, if there is no track with dimensions). Only the headers of
+   * the boxes on the way to the track header are read (at most MAX_MP4_BOXES), not the movie.
+   */
+  private static long readVideoPixels(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file)) {
+      return readVideoPixels(channel, 0, channel.size(), new int[]{MAX_MP4_BOXES});
+    }
+  }
+
+  private static long readVideoPixels(FileChannel channel, long start, long end,
+      int[] remainingBoxes) throws IOException {
+    long position = start;
+    while (end - position >= 8 && remainingBoxes[0]-- > 0) {
+      ByteBuffer header = read(channel, position, 8);
+      long boxSize = Integer.toUnsignedLong(header.getInt());
+      String type = new String(header.array(), 4, 4, StandardCharsets.US_ASCII);
+      long headerSize = 8;
+      if (boxSize == 1 && end - position >= 16) {
+        // 64 bit size after the type
+        boxSize = read(channel, position + 8, 8).getLong();
+        headerSize = 16;
+      } else if (boxSize == 0) {
+        // the box extends to the end
+        boxSize = end - position;
+      }
+      if (boxSize < headerSize || boxSize > end - position) {
+        return 0;
+      }
+      if (type.equals("moov") || type.equals("trak")) {
+        long pixels = readVideoPixels(channel, position + headerSize, position + boxSize,
+            remainingBoxes);
+        if (pixels > 0) {
+          return pixels;
+        }
+      } else if (type.equals("tkhd") && boxSize >= headerSize + 8) {
+        // width and height (16.16 fixed point numbers) are the last fields of the track header
+        ByteBuffer dimensions = read(channel, position + boxSize - 8, 8);
+        long width = Integer.toUnsignedLong(dimensions.getInt()) >>> 16;
+        long height = Integer.toUnsignedLong(dimensions.getInt()) >>> 16;
+        if (width > 0 && height > 0) {
+          return width * height;
+        }
+      }
+      position += boxSize;
+    }
+    return 0;
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) == -1) {
+        throw new EOFException();
+      }
+    }
+    return buffer.flip();
+  }
+
+  /**
+   * Try to generate a thumbnail for JPGs/GIFs/PNGs. The image is decoded with source subsampling
+   * (only every n-th pixel of every n-th row), so the decoded image is not much larger than the
+   * thumbnail - the size of the source image only affects the decoding time. Images with more
+   * pixels than allowed (property app.thumbnailMaxPixels, e.g. decompression bombs) are rejected
+   * before decoding.
+   */
+  private Optional<InputStream> generateFromImage(InputStream source, int size) {
+    try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(source)) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+      if (!readers.hasNext()) {
+        LOGGER.error("Can't create thumbnail for image: unknown format");
+        return Optional.empty();
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(imageInputStream, true, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        if ((long) width * height > maxPixels) {
+          LOGGER.error("Can't create thumbnail for image with {}x{} pixels", width, height);
+          return Optional.empty();
+        }
+
+        // the shorter side must not become smaller than the thumbnail
+        int subsampling = Math.max(1, Math.min(width, height) / size);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return resizeImage(toRgb(reader.read(0, param)), size);
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.error("Can't create thumbnail for image", e);
       return Optional.empty();
     }
   }
 
+  /**
+   * Draw the given image on a white background, because JPGs don't support transparency. Taken
+   * from: https://memorynotfound.com/convert-png-to-jpg-image-file-using-java/
+   */
+  private static BufferedImage toRgb(BufferedImage image) {
+    if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+      return image;
+    }
+    BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+        BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = converted.createGraphics();
+    graphics.drawImage(image, 0, 0, Color.WHITE, null);
+    graphics.dispose();
+    return converted;
+  }
+
   /**
    * Try to render the pdf document, use the first page as an image and generate a thumbnail for
    * this image. Taken from: https://www.tutorialspoint.com/pdfbox/pdfbox_extracting_image.htm
    */
-  private Optional<InputStream> generateFromPdf(InputStream source) {
-    try {
-      PDDocument document = PDDocument.load(source);
-      PDFRenderer renderer = new PDFRenderer(document);
-      BufferedImage firstPageImage = renderer.renderImage(0);
-      document.close();
-      return resizeImage(firstPageImage);
-    } catch (IOException e) {
+  private Optional<InputStream> generateFromPdf(InputStream source, int size) {
+    // large documents are buffered in a temporary file instead of the heap
+    try (PDDocument document = PDDocument
+        .load(source, MemoryUsageSetting.setupMixed(pdfMainMemoryBytes))) {
+      Future<?> timeout = scheduleTimeout(document, pdfTimeoutMs);
+      BufferedImage firstPageImage;
+      try {
+        PDRectangle cropBox = document.getPage(0).getCropBox();
+        float scale = getRenderScale(cropBox, size);
+        if (scale == 0) {
+          LOGGER.error("Can't create thumbnail for pdf page with size {}x{}", cropBox.getWidth(),
+              cropBox.getHeight());
+          return Optional.empty();
+        }
+        // only the top left square is used for the thumbnail, so only that part is rendered
+        int width = (int) Math.min(size, cropBox.getWidth() * scale);
+        int height = (int) Math.min(size, cropBox.getHeight() * scale);
+        firstPageImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = firstPageImage.createGraphics();
+        try {
+          graphics.setBackground(Color.WHITE);
+          graphics.clearRect(0, 0, width, height);
+          new PDFRenderer(document).renderPageToGraphics(0, graphics, scale);
+        } finally {
+          graphics.dispose();
+        }
+      } finally {
+        cancelTimeout(timeout);
+      }
+      return timeout.isCancelled() ? resizeImage(firstPageImage, size) : Optional.empty();
+    } catch (IOException | RuntimeException e) {
       LOGGER.error("Can't resize pdf thumbnail", e);
       return Optional.empty();
     }
   }
 
   /**
-   * Try to read the video with jcodec, extract the 24th frame from the video and generate a
-   * thumbnail for this image. This works only for the video encodings: AVC, H.264 in MP4, ISO BMF,
-   * Quicktime container Accessing a non existing frame will not cause an error (the last frame of
-   * the video will be used instead)
+   * Return the scale for rendering the given page with the resolution needed for the thumbnail
+   * instead of 72 dpi: the shorter side is scaled to the thumbnail size, but the rendered page must
+   * not have more pixels than allowed (property app.thumbnailMaxPixels). Returns 0, if the page
+   * would have no pixels (e.g. a page with zero width).
    */
-  private Optional<InputStream> generateFromVideo(InputStream inputStream) {
-    File tempFile = null;
+  private float getRenderScale(PDRectangle page, int size) {
+    double width = page.getWidth();
+    double height = page.getHeight();
+    if (!(width > 0 && height > 0) || Double.isInfinite(width * height)) {
+      return 0;
+    }
+    double scale = Math.min(size / Math.min(width, height),
+        Math.sqrt(maxPixels / (width * height)));
+    if (width * scale < 1 || height * scale < 1) {
+      return 0;
+    }
+    return (float) scale;
+  }
+
+  /**
+   * Close the given resource after the given time, so a generation which takes too long fails
+   * (PDFBox and jcodec don't react to interrupts).
+   */
+  private Future<?> scheduleTimeout(Closeable resource, long timeoutMs) {
+    return timeoutExecutor.schedule(() -> {
+      LOGGER.warn("Generating thumbnail took longer than {} ms", timeoutMs);
+      resource.close();
+      return null;
+    }, timeoutMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Cancel the given timeout. If it already expired, wait until the resource was closed, so it
+   * isn't closed concurrently. The timeout expired, if it is not cancelled afterwards.
+   */
+  private static void cancelTimeout(Future<?> timeout) {
+    if (timeout.cancel(false)) {
+      return;
+    }
     try {
-      tempFile = File.createTempFile("video_thumbnail", ".tmp");
-      tempFile.deleteOnExit();
-      try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
-        IOUtils.copy(inputStream, outputStream);
-      }
-      Picture thumbnail = FrameGrab.getFrameFromFile(tempFile, 24);
-      BufferedImage bufferedThumbnail = AWTUtil.toBufferedImage(thumbnail);
-      tempFile.delete();
-      return resizeImage(bufferedThumbnail);
-    } catch (IOException | JCodecException e) {
-      if (tempFile != null) {
-        tempFile.delete();
+      timeout.get();
+    } catch (ExecutionException e) {
+      LOGGER.warn("Can't close resource after timeout", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    timeoutExecutor.shutdownNow();
+  }
+
+  /**
+   * Try to read the video with jcodec, extract a frame (property app.thumbnailVideoFrame) from the
+   * video and generate a thumbnail for this image. The frame is read directly from the file, only
+   * the needed parts are loaded. This works only for the video encodings: AVC, H.264 in MP4, ISO
+   * BMF, Quicktime container Accessing a non existing frame will not cause an error (the last frame
+   * of the video will be used instead)
+   */
+  private Optional<InputStream> generateFromVideo(Path file, int size) {
+    try (FileChannelWrapper channel = NIOUtils.readableChannel(file.toFile())) {
+      Future<?> timeout = scheduleTimeout(channel, videoTimeoutMs);
+      Picture frame;
+      try {
+        frame = FrameGrab.getFrameFromChannel(channel, videoFrame);
+      } finally {
+        cancelTimeout(timeout);
       }
+      return timeout.isCancelled() ? resizeImage(AWTUtil.toBufferedImage(frame), size)
+          : Optional.empty();
+    } catch (IOException | JCodecException | RuntimeException e) {
       LOGGER.error("Can't create thumbnail from video", e);
       return Optional.empty();
     }
   }
 
   /**
-   * Try to resize the given BufferedImage to a maximum height or width without changing the ratio.
+   * Try to resize the given BufferedImage to a quadratic thumbnail without changing the ratio. The
+   * image is cropped before resizing, so a narrow image isn't scaled up to a huge image first.
    */
-  private Optional<InputStream> resizeImage(BufferedImage original) {
+  private Optional<InputStream> resizeImage(BufferedImage original, int size) {
     try {
-      Scalr.Mode mode = original.getWidth() < original.getHeight() ? Scalr.Mode.FIT_TO_WIDTH
-          : Scalr.Mode.FIT_TO_HEIGHT;
-      BufferedImage thumbnail = Scalr
-          .resize(original, AUTOMATIC, mode, THUMBNAIL_SIZE, Scalr.OP_ANTIALIAS);
-      BufferedImage quadraticThumbnail = Scalr.crop(thumbnail, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+      int side = Math.min(original.getWidth(), original.getHeight());
+      BufferedImage quadraticOriginal = Scalr.crop(original, side, side);
+      BufferedImage quadraticThumbnail = Scalr
+          .resize(quadraticOriginal, AUTOMATIC, Scalr.Mode.FIT_EXACT, size, size,
+              Scalr.OP_ANTIALIAS);
 
       ByteArrayOutputStream output = new ByteArrayOutputStream();
       ImageIO.write(quadraticThumbnail, "jpg", output);
@@ -0,0 +1,99 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+import java.time.Instant;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.springframework.http.MediaType;
+
+/**
+ * This class defines how the table thumbnail_job should look like (which columns, which
+ * primary/foreign keys etc.) A thumbnail job describes content, whose thumbnail wasn't generated
+ * yet. Jobs are stored in the database, so they survive restarts. The attempts to execute a job
+ * are counted, so a job which always fails isn't retried forever.
+ */
+@Entity
+public class ThumbnailJob {
+
+  @Id
+  @Column(length = 64)
+  private String contentHash;
+
+  @Column(length = 512)
+  private MediaType contentType;
+
+  @Column
+  private Instant creationDate;
+
+  @Column
+  private int attempts;
+
+  public ThumbnailJob() {
+  }
+
+  public ThumbnailJob(String contentHash, MediaType contentType) {
+    this.contentHash = contentHash;
+    this.contentType = contentType;
+    this.creationDate = Instant.now();
+  }
+
+  public String getContentHash() {
+    return contentHash;
+  }
+
+  public void setContentHash(String contentHash) {
+    this.contentHash = contentHash;
+  }
+
+  public MediaType getContentType() {
+    return contentType;
+  }
+
+  public void setContentType(MediaType contentType) {
+    this.contentType = contentType;
+  }
+
+  public Instant getCreationDate() {
+    return creationDate;
+  }
+
+  public void setCreationDate(Instant creationDate) {
+    this.creationDate = creationDate;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ThumbnailJob that = (ThumbnailJob) o;
+    return Objects.equals(contentHash, that.contentHash);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(contentHash);
+  }
+
+  @Override
+  public String toString() {
+    return "ThumbnailJob{" +
+        "contentHash='" + contentHash + '\'' +
+        ", contentType=" + contentType +
+        ", creationDate=" + creationDate +
+        ", attempts=" + attempts +
+        '}';
+  }
+}
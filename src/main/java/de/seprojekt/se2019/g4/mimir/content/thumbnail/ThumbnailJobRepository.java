@@ -0,0 +1,23 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+import java.util.List;
+import java.util.Optional;
+import javax.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+
+/**
+ * This interface will be implemented by Spring Data JPA. The implementation will help us to store
+ * {@link ThumbnailJob} in the database and execute CRUD (create, read, update, delete) operation
+ * on the database.
+ */
+public interface ThumbnailJobRepository extends JpaRepository<ThumbnailJob, String> {
+
+  List<ThumbnailJob> findTop100ByOrderByCreationDate();
+
+  /**
+   * Return the job and lock it until the end of the transaction.
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  Optional<ThumbnailJob> findByContentHash(String contentHash);
+}
@@ -0,0 +1,82 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * This service limits the memory used for generating thumbnails. Before a thumbnail is generated,
+ * its (estimated) peak memory must be acquired: the generation starts only if the memory of all
+ * running generations fits into the budget (property app.thumbnailMemoryBudgetBytes), otherwise
+ * it waits. Waiting generations start in the order they arrived, so large ones don't starve; a
+ * generation which needs more than the whole budget runs alone.
+ *
+ * <p>The metrics thumbnail.memory.queue (waiting generations), thumbnail.memory.used (acquired
+ * bytes) and thumbnail.memory.wait (waiting time) show how the budget is used.
+ */
+@Service
+public class ThumbnailMemoryGovernor {
+
+  private long budget;
+  private Timer waitTimer;
+  // guarded by this
+  private long usedBytes;
+  private final Deque<Object> waiting = new ArrayDeque<>();
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public ThumbnailMemoryGovernor(
+      @Value("${app.thumbnailMemoryBudgetBytes}") long budget,
+      MeterRegistry meterRegistry) {
+    this.budget = budget;
+    this.waitTimer = meterRegistry.timer("thumbnail.memory.wait");
+    meterRegistry.gauge("thumbnail.memory.queue", this, ThumbnailMemoryGovernor::getQueueLength);
+    meterRegistry.gauge("thumbnail.memory.used", this, ThumbnailMemoryGovernor::getUsedBytes);
+  }
+
+  /**
+   * Wait until the given number of bytes fits into the budget and acquire them. They must be
+   * released with {@link #release(long)} afterwards.
+   */
+  public synchronized void acquire(long bytes) throws InterruptedException {
+    long start = System.nanoTime();
+    Object ticket = new Object();
+    waiting.addLast(ticket);
+    try {
+      while (waiting.peekFirst() != ticket || !fits(bytes)) {
+        wait();
+      }
+    } finally {
+      waiting.remove(ticket);
+      // the next generation may fit, too (or the first one was interrupted)
+      notifyAll();
+    }
+    usedBytes += bytes;
+    waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Release bytes acquired with {@link #acquire(long)}.
+   */
+  public synchronized void release(long bytes) {
+    usedBytes -= bytes;
+    notifyAll();
+  }
+
+  public synchronized int getQueueLength() {
+    return waiting.size();
+  }
+
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  private boolean fits(long bytes) {
+    return usedBytes == 0 || usedBytes + bytes <= budget;
+  }
+}
@@ -0,0 +1,39 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+import java.util.Optional;
+
+/**
+ * The sizes in which thumbnails are offered. The default rendition is generated in the background
+ * after an upload, the other renditions are generated when they are requested for the first time.
+ */
+public enum ThumbnailRendition {
+  LIST(64),
+  GRID(200),
+  DEFAULT(400),
+  PREVIEW(1200);
+
+  private final int size;
+
+  ThumbnailRendition(int size) {
+    this.size = size;
+  }
+
+  /**
+   * Return the width and height of the rendition in pixels.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Return the rendition with the given (case insensitive) name, e.g. 'grid'.
+   */
+  public static Optional<ThumbnailRendition> findByName(String name) {
+    for (ThumbnailRendition rendition : values()) {
+      if (rendition.name().equalsIgnoreCase(name)) {
+        return Optional.of(rendition);
+      }
+    }
+    return Optional.empty();
+  }
+}
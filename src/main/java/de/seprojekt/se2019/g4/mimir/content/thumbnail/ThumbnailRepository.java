@@ -1,6 +1,11 @@
 package de.seprojekt.se2019.g4.mimir.content.thumbnail;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import javax.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 
 /**
  * This interface will be implemented by Spring Data JPA. The implementation will help us to store
@@ -11,4 +16,20 @@ import org.springframework.data.jpa.repository.JpaRepository;
  */
 public interface ThumbnailRepository extends JpaRepository<Thumbnail, Long> {
 
+  Optional<Thumbnail> findFirstByContentHashAndRendition(String contentHash,
+      ThumbnailRendition rendition);
+
+  /**
+   * Return the thumbnail and lock it until the end of the transaction.
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  Optional<Thumbnail> findByContentHashAndRendition(String contentHash,
+      ThumbnailRendition rendition);
+
+  boolean existsByContentHash(String contentHash);
+
+  List<Thumbnail> findByContentHashInAndRendition(Collection<String> contentHashes,
+      ThumbnailRendition rendition);
+
+  List<Thumbnail> findByContentHash(String contentHash);
 }
@@ -0,0 +1,450 @@
+package de.seprojekt.se2019.g4.mimir.content.thumbnail;
+
+import de.seprojekt.se2019.g4.mimir.content.blob.BlobService;
+import de.seprojekt.se2019.g4.mimir.content.blob.BlobStore;
+import de.seprojekt.se2019.g4.mimir.content.blob.StoredBlob;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * This service generates thumbnails in the background, so uploads don't wait for the (possibly
+ * slow) rendering of PDFs and videos. An upload only stores a {@link ThumbnailJob}; after the
+ * upload was committed, the job is executed by a bounded pool of worker threads (property
+ * app.thumbnailThreads). Jobs which were not executed yet (e.g. because the application was
+ * restarted) are picked up regularly. A worker only starts generating, if the estimated memory of
+ * the generation fits into the budget of the {@link ThumbnailMemoryGovernor}.
+ *
+ * <p>The jobs generate the default {@link ThumbnailRendition}. The other renditions are generated
+ * when they are requested for the first time - smaller ones from the default rendition, larger
+ * ones from the content.
+ */
+@Service
+public class ThumbnailService {
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(ThumbnailService.class);
+  private static final int MAX_JOB_ATTEMPTS = 3;
+
+  private ThumbnailRepository thumbnailRepository;
+  private ThumbnailJobRepository thumbnailJobRepository;
+  private ThumbnailGenerator thumbnailGenerator;
+  private ThumbnailCache thumbnailCache;
+  private ThumbnailMemoryGovernor memoryGovernor;
+  private BlobStore blobStore;
+  private BlobService blobService;
+  private TransactionTemplate transactionTemplate;
+  private ExecutorService executorService;
+  private Set<String> queuedJobs = ConcurrentHashMap.newKeySet();
+  private Map<String, Object> renditionLocks = new ConcurrentHashMap<>();
+  private int maxQueuedJobs;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public ThumbnailService(
+      ThumbnailRepository thumbnailRepository,
+      ThumbnailJobRepository thumbnailJobRepository,
+      ThumbnailGenerator thumbnailGenerator,
+      ThumbnailCache thumbnailCache,
+      ThumbnailMemoryGovernor memoryGovernor,
+      BlobStore blobStore,
+      BlobService blobService,
+      PlatformTransactionManager transactionManager,
+      @Value("${app.thumbnailThreads}") int threads) {
+    this.thumbnailRepository = thumbnailRepository;
+    this.thumbnailJobRepository = thumbnailJobRepository;
+    this.thumbnailGenerator = thumbnailGenerator;
+    this.thumbnailCache = thumbnailCache;
+    this.memoryGovernor = memoryGovernor;
+    this.blobStore = blobStore;
+    this.blobService = blobService;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.executorService = Executors.newFixedThreadPool(threads,
+        new CustomizableThreadFactory("thumbnail-"));
+    // the other jobs stay in the database until a worker is free
+    this.maxQueuedJobs = 2 * threads;
+  }
+
+  /**
+   * Check if the thumbnail of the content with the given hash will be generated.
+   */
+  public boolean isPending(String contentHash) {
+    return thumbnailJobRepository.existsById(contentHash);
+  }
+
+  /**
+   * Request a thumbnail for the content with the given hash, if it doesn't have one yet and one
+   * can be generated for its type. The thumbnail will be generated after the current transaction
+   * was committed.
+   */
+  @Transactional
+  public void request(String contentHash, MediaType contentType) {
+    if (!needsThumbnail(contentHash, contentType, false)) {
+      return;
+    }
+    thumbnailJobRepository.save(new ThumbnailJob(contentHash, contentType));
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          queue(contentHash);
+        }
+      });
+    }
+  }
+
+  /**
+   * Return the thumbnail of the content with the given hash in the given rendition. If the
+   * rendition doesn't exist yet, but the default rendition does, it will be generated (only one
+   * thread per rendition). An empty optional is returned, if there is no thumbnail (yet).
+   */
+  public Optional<Thumbnail> find(String contentHash, MediaType contentType,
+      ThumbnailRendition rendition) {
+    Optional<Thumbnail> thumbnail = thumbnailRepository
+        .findFirstByContentHashAndRendition(contentHash, rendition);
+    if (thumbnail.isPresent() || rendition == ThumbnailRendition.DEFAULT) {
+      return thumbnail;
+    }
+    Optional<Thumbnail> defaultThumbnail = thumbnailRepository
+        .findFirstByContentHashAndRendition(contentHash, ThumbnailRendition.DEFAULT);
+    if (defaultThumbnail.isEmpty()) {
+      return Optional.empty();
+    }
+
+    String key = contentHash + "-" + rendition;
+    Object lock = renditionLocks.computeIfAbsent(key, k -> new Object());
+    try {
+      synchronized (lock) {
+        thumbnail = thumbnailRepository.findFirstByContentHashAndRendition(contentHash, rendition);
+        if (thumbnail.isPresent()) {
+          return thumbnail;
+        }
+        return generateRendition(contentHash, contentType, rendition, defaultThumbnail.get());
+      }
+    } finally {
+      renditionLocks.remove(key, lock);
+    }
+  }
+
+  /**
+   * Return the existing thumbnails of the content with the given hashes in the given rendition (by
+   * content hash).
+   */
+  public Map<String, Thumbnail> findAll(Collection<String> contentHashes,
+      ThumbnailRendition rendition) {
+    Map<String, Thumbnail> thumbnails = new HashMap<>();
+    if (contentHashes.isEmpty()) {
+      return thumbnails;
+    }
+    for (Thumbnail thumbnail : thumbnailRepository
+        .findByContentHashInAndRendition(contentHashes, rendition)) {
+      thumbnails.put(thumbnail.getContentHash(), thumbnail);
+    }
+    return thumbnails;
+  }
+
+  /**
+   * Generate and store the given rendition. If it can't be generated, the image of the default
+   * rendition is stored instead, so the generation isn't repeated on every request.
+   */
+  private Optional<Thumbnail> generateRendition(String contentHash, MediaType contentType,
+      ThumbnailRendition rendition, Thumbnail defaultThumbnail) {
+    // scaling down the default rendition is much cheaper than reading the content again
+    boolean fromDefault = rendition.getSize() < ThumbnailRendition.DEFAULT.getSize();
+    Optional<Path> file = blobStore
+        .findFile(fromDefault ? defaultThumbnail.getBlobHash() : contentHash);
+    Optional<InputStream> generatedThumbnail = Optional.empty();
+    if (file.isPresent()) {
+      try {
+        generatedThumbnail = generateWithinBudget(file.get(),
+            fromDefault ? MediaType.IMAGE_JPEG : contentType, rendition.getSize());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return Optional.empty();
+      } catch (RuntimeException e) {
+        LOGGER.warn("Can't generate thumbnail rendition {} for content {}", rendition,
+            contentHash, e);
+      }
+    }
+
+    Optional<InputStream> thumbnail = generatedThumbnail;
+    return transactionTemplate.execute(status -> {
+      // the default rendition was deleted, if the content was deleted in the meantime
+      if (thumbnailRepository
+          .findByContentHashAndRendition(contentHash, ThumbnailRendition.DEFAULT).isEmpty()) {
+        return Optional.empty();
+      }
+      try (InputStream thumbnailStream = thumbnail.isPresent() ? thumbnail.get()
+          : blobStore.open(defaultThumbnail.getBlobHash())) {
+        return Optional.of(store(contentHash, rendition, thumbnailStream));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Check if a thumbnail should be generated for the content with the given hash: its type must be
+   * supported and no job may be pending. If replace is false, content with a thumbnail is skipped.
+   */
+  public boolean needsThumbnail(String contentHash, MediaType contentType, boolean replace) {
+    return ThumbnailGenerator.supportMimeType(contentType)
+        && !thumbnailJobRepository.existsById(contentHash)
+        && (replace || !thumbnailRepository.existsByContentHash(contentHash));
+  }
+
+  /**
+   * Generate the thumbnail of the content with the given hash in the calling thread without a job,
+   * e.g. for the backfill (which has its own workers, so it doesn't use the workers for uploads).
+   * The existing thumbnails are replaced only, if the new thumbnail was generated. Return true, if
+   * a thumbnail was stored.
+   */
+  public boolean generateWithoutJob(String contentHash, MediaType contentType) {
+    Optional<InputStream> thumbnail;
+    try {
+      thumbnail = generateDefault(contentHash, contentType);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    if (thumbnail.isEmpty()) {
+      return false;
+    }
+    return transactionTemplate.execute(status -> {
+      try (InputStream thumbnailStream = thumbnail.get()) {
+        // the content isn't referenced anymore, if it was deleted in the meantime
+        if (!blobService.isReferenced(contentHash)) {
+          return false;
+        }
+        replaceThumbnails(contentHash, thumbnailStream);
+        return true;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Delete the thumbnails (and a pending job) of the content with the given hash.
+   */
+  @Transactional
+  public void delete(String contentHash) {
+    thumbnailJobRepository.findByContentHash(contentHash).ifPresent(thumbnailJobRepository::delete);
+    deleteThumbnails(contentHash);
+  }
+
+  /**
+   * Delete all renditions of the thumbnail of the content with the given hash. Must be called
+   * inside of a transaction.
+   */
+  private void deleteThumbnails(String contentHash) {
+    // no other rendition can be stored while the default rendition is locked
+    thumbnailRepository.findByContentHashAndRendition(contentHash, ThumbnailRendition.DEFAULT);
+    for (Thumbnail thumbnail : thumbnailRepository.findByContentHash(contentHash)) {
+      thumbnailRepository.delete(thumbnail);
+      if (thumbnail.getBlobHash() != null) {
+        blobService.release(thumbnail.getBlobHash());
+      }
+    }
+    thumbnailCache.invalidate(contentHash);
+  }
+
+  /**
+   * Queue the oldest pending jobs, e.g. after a restart.
+   */
+  @Scheduled(fixedDelayString = "${app.thumbnailPollIntervalMs}")
+  public void queuePendingJobs() {
+    for (ThumbnailJob thumbnailJob : thumbnailJobRepository.findTop100ByOrderByCreationDate()) {
+      if (!queue(thumbnailJob.getContentHash())) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Let a worker execute the job with the given hash. Return false, if the queue is full.
+   */
+  private boolean queue(String contentHash) {
+    if (queuedJobs.size() >= maxQueuedJobs) {
+      return false;
+    }
+    if (queuedJobs.add(contentHash)) {
+      executorService.execute(() -> {
+        try {
+          generate(contentHash);
+        } catch (RuntimeException e) {
+          LOGGER.error("Thumbnail job for content {} failed", contentHash, e);
+        } finally {
+          queuedJobs.remove(contentHash);
+        }
+      });
+    }
+    return true;
+  }
+
+  /**
+   * Execute the job with the given hash: generate the thumbnail (outside of a transaction, so no
+   * database connection is blocked), replace the existing thumbnails with it and delete the job.
+   * If no thumbnail can be generated, the job is deleted, too (existing thumbnails are kept). If
+   * the thumbnail can't be stored, the job stays and is executed again later - at most
+   * MAX_JOB_ATTEMPTS times. Return true, if a thumbnail was stored.
+   */
+  public boolean generate(String contentHash) {
+    Optional<ThumbnailJob> thumbnailJob = startAttempt(contentHash);
+    if (thumbnailJob.isEmpty()) {
+      return false;
+    }
+
+    Optional<InputStream> thumbnail;
+    try {
+      thumbnail = generateDefault(contentHash, thumbnailJob.get().getContentType());
+    } catch (InterruptedException e) {
+      // the job stays in the database and will be executed later
+      Thread.currentThread().interrupt();
+      return false;
+    }
+
+    try {
+      return storeGeneratedThumbnail(contentHash, thumbnail);
+    } catch (RuntimeException e) {
+      LOGGER.warn("Can't store thumbnail for content {}, the job will be executed again",
+          contentHash, e);
+      return false;
+    }
+  }
+
+  /**
+   * Count an attempt to execute the job with the given hash. The attempt is committed before the
+   * job is executed, so it is counted even if the execution fails or the application stops. A job
+   * which was attempted MAX_JOB_ATTEMPTS times is deleted and an empty optional is returned.
+   */
+  private Optional<ThumbnailJob> startAttempt(String contentHash) {
+    return transactionTemplate.execute(status -> {
+      Optional<ThumbnailJob> thumbnailJob = thumbnailJobRepository.findByContentHash(contentHash);
+      if (thumbnailJob.isEmpty()) {
+        return Optional.empty();
+      }
+      if (thumbnailJob.get().getAttempts() >= MAX_JOB_ATTEMPTS) {
+        LOGGER.error("Giving up thumbnail job for content {} after {} attempts", contentHash,
+            thumbnailJob.get().getAttempts());
+        thumbnailJobRepository.delete(thumbnailJob.get());
+        return Optional.empty();
+      }
+      thumbnailJob.get().setAttempts(thumbnailJob.get().getAttempts() + 1);
+      return Optional.of(thumbnailJobRepository.save(thumbnailJob.get()));
+    });
+  }
+
+  /**
+   * Store the generated thumbnail (if there is one) of the job with the given hash and delete the
+   * job. Return true, if a thumbnail was stored.
+   */
+  private boolean storeGeneratedThumbnail(String contentHash, Optional<InputStream> thumbnail) {
+    return transactionTemplate.execute(status -> {
+      // the content row is locked first (like by a deletion and by generateWithoutJob), so only
+      // one transaction at a time replaces the thumbnails of the content
+      blobService.isReferenced(contentHash);
+      // the job was deleted, if the content was deleted in the meantime
+      Optional<ThumbnailJob> lockedThumbnailJob = thumbnailJobRepository
+          .findByContentHash(contentHash);
+      if (lockedThumbnailJob.isEmpty()) {
+        return false;
+      }
+      if (thumbnail.isPresent()) {
+        try (InputStream thumbnailStream = thumbnail.get()) {
+          replaceThumbnails(contentHash, thumbnailStream);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      thumbnailJobRepository.delete(lockedThumbnailJob.get());
+      return thumbnail.isPresent();
+    });
+  }
+
+  /**
+   * Generate the default rendition of the thumbnail of the content with the given hash. An empty
+   * optional is returned, if it can't be generated.
+   */
+  private Optional<InputStream> generateDefault(String contentHash, MediaType contentType)
+      throws InterruptedException {
+    Optional<Path> file = blobStore.findFile(contentHash);
+    if (file.isEmpty()) {
+      LOGGER.warn("Can't find content {} for generating its thumbnail", contentHash);
+      return Optional.empty();
+    }
+    try {
+      return generateWithinBudget(file.get(), contentType, ThumbnailRendition.DEFAULT.getSize());
+    } catch (RuntimeException e) {
+      LOGGER.warn("Can't generate thumbnail for content {}", contentHash, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Generate a thumbnail with the given size for the given file, as soon as its estimated memory
+   * fits into the budget.
+   */
+  private Optional<InputStream> generateWithinBudget(Path file, MediaType contentType, int size)
+      throws InterruptedException {
+    long estimatedMemory = thumbnailGenerator.estimateMemory(file, contentType, size);
+    memoryGovernor.acquire(estimatedMemory);
+    try {
+      return thumbnailGenerator.generateThumbnail(file, contentType, size);
+    } finally {
+      memoryGovernor.release(estimatedMemory);
+    }
+  }
+
+  /**
+   * Replace all renditions of the thumbnail of the content with the given hash with the given
+   * image of the default rendition (the other renditions are generated again from it). Must be
+   * called inside of a transaction.
+   */
+  private void replaceThumbnails(String contentHash, InputStream image) throws IOException {
+    deleteThumbnails(contentHash);
+    store(contentHash, ThumbnailRendition.DEFAULT, image);
+  }
+
+  /**
+   * Store the image of a thumbnail. Must be called inside of a transaction.
+   */
+  private Thumbnail store(String contentHash, ThumbnailRendition rendition, InputStream image)
+      throws IOException {
+    StoredBlob thumbnailBlob = blobService.store(image);
+    Thumbnail newThumbnail = new Thumbnail();
+    newThumbnail.setContentHash(contentHash);
+    newThumbnail.setRendition(rendition);
+    newThumbnail.setBlobHash(thumbnailBlob.getHash());
+    newThumbnail.setContentLength(thumbnailBlob.getContentLength());
+    return thumbnailRepository.save(newThumbnail);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    // interrupted jobs stay in the database and will be executed after the next start
+    executorService.shutdownNow();
+  }
+}
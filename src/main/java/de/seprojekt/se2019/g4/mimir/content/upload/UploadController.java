@@ -0,0 +1,204 @@
+package de.seprojekt.se2019.g4.mimir.content.upload;
+
+import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
+import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
+import de.seprojekt.se2019.g4.mimir.content.folder.Folder;
+import de.seprojekt.se2019.g4.mimir.content.folder.FolderService;
+import de.seprojekt.se2019.g4.mimir.security.JwtPrincipal;
+import de.seprojekt.se2019.g4.mimir.security.user.UserService;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Base64;
+import java.util.Optional;
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * This controller offers an HTTP interface for uploading large artifacts in chunks. An interrupted
+ * upload can be resumed by asking for the received length and sending the next missing chunk.
+ */
+@Controller
+public class UploadController {
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(UploadController.class);
+  private static final String SHA_256_DIGEST = "sha-256=";
+
+  private UploadService uploadService;
+  private ArtifactService artifactService;
+  private FolderService folderService;
+  private UserService userService;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public UploadController(
+      UploadService uploadService,
+      ArtifactService artifactService,
+      FolderService folderService,
+      UserService userService) {
+    this.uploadService = uploadService;
+    this.artifactService = artifactService;
+    this.folderService = folderService;
+    this.userService = userService;
+  }
+
+  /**
+   * The user can start a chunked upload of an artifact by calling this interface.
+   */
+  @PostMapping(value = "/artifact/upload")
+  public ResponseEntity<UploadSession> createUploadSession(
+      @RequestParam("parentId") Long parentFolderId,
+      @RequestParam("name") String name,
+      @RequestParam("contentType") String contentType,
+      @RequestParam("contentLength") long contentLength,
+      @RequestParam(name = "chunkSize", required = false) Integer chunkSize,
+      Principal principal) {
+    Optional<Folder> parentFolderOptional = folderService.findById(parentFolderId);
+    if (parentFolderOptional.isEmpty()) {
+      return ResponseEntity.status(409).build();
+    }
+
+    Folder parentFolder = parentFolderOptional.get();
+    if (!userService.isAuthorizedForFolder(parentFolder, principal)) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    if (artifactService.existsByParentFolderAndDisplayName(parentFolder, name)) {
+      return ResponseEntity.status(409).build();
+    }
+    if (StringUtils.isEmpty(name) || contentLength <= 0) {
+      return ResponseEntity.badRequest().build();
+    }
+    MediaType mediaType;
+    try {
+      mediaType = MediaType.valueOf(contentType);
+    } catch (InvalidMediaTypeException e) {
+      return ResponseEntity.badRequest().build();
+    }
+    LOGGER.info("Chunked upload of artifact '{}' with {} bytes", name, contentLength);
+
+    return ResponseEntity.ok().body(uploadService
+        .create(parentFolder, name, mediaType, contentLength, chunkSize, principal.getName()));
+  }
+
+  /**
+   * The user can get the state (e.g. the received length) of an upload by calling this interface.
+   */
+  @GetMapping(value = "/artifact/upload/{id}")
+  public ResponseEntity<UploadSession> getUploadSession(@PathVariable String id,
+      Principal principal) {
+    return ResponseEntity.ok().body(findOwnUploadSession(id, principal));
+  }
+
+  /**
+   * The user can send a chunk of an upload by calling this interface. The body of the request is
+   * the content of the chunk. If the Digest header contains a SHA-256 hash (RFC 3230), the chunk
+   * will be checked against it.
+   */
+  @PutMapping(value = "/artifact/upload/{id}/{chunkNumber}")
+  public ResponseEntity<UploadSession> uploadChunk(@PathVariable String id,
+      @PathVariable int chunkNumber,
+      @RequestHeader(name = "Digest", required = false) String digest,
+      HttpServletRequest request, Principal principal) throws IOException {
+    UploadSession uploadSession = findOwnUploadSession(id, principal);
+    try {
+      return ResponseEntity.ok().body(uploadService.writeChunk(uploadSession, chunkNumber,
+          request.getInputStream(), parseSha256(digest)));
+    } catch (IllegalArgumentException e) {
+      LOGGER.info("Rejected chunk {} of upload session '{}': {}", chunkNumber, id, e.getMessage());
+      return ResponseEntity.badRequest().build();
+    } catch (IllegalStateException e) {
+      LOGGER.info("Rejected chunk {} of upload session '{}': {}", chunkNumber, id, e.getMessage());
+      return ResponseEntity.status(HttpStatus.CONFLICT).build();
+    }
+  }
+
+  /**
+   * The user can create the artifact of a completely received upload by calling this interface.
+   */
+  @PostMapping(value = "/artifact/upload/{id}")
+  public ResponseEntity<Artifact> completeUploadSession(@PathVariable String id,
+      Principal principal) throws IOException {
+    UploadSession uploadSession = findOwnUploadSession(id, principal);
+    Optional<Folder> parentFolderOptional = folderService.findById(uploadSession.getParentId());
+    if (parentFolderOptional.isEmpty()) {
+      return ResponseEntity.status(409).build();
+    }
+
+    Folder parentFolder = parentFolderOptional.get();
+    if (!userService.isAuthorizedForFolder(parentFolder, principal)) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    if (!uploadSession.isComplete() || artifactService
+        .existsByParentFolderAndDisplayName(parentFolder, uploadSession.getName())) {
+      return ResponseEntity.status(409).build();
+    }
+
+    String author;
+    if (principal.getName().equals(JwtPrincipal.shareLinkUserName)) {
+      author = "Guest";
+    } else {
+      author = principal.getName();
+    }
+
+    try {
+      return ResponseEntity.ok().body(uploadService.complete(uploadSession, parentFolder, author));
+    } catch (IllegalStateException e) {
+      return ResponseEntity.status(HttpStatus.CONFLICT).build();
+    }
+  }
+
+  /**
+   * The user can cancel an upload by calling this interface.
+   */
+  @DeleteMapping(value = "/artifact/upload/{id}")
+  public ResponseEntity<String> deleteUploadSession(@PathVariable String id, Principal principal)
+      throws IOException {
+    uploadService.delete(findOwnUploadSession(id, principal));
+    return ResponseEntity.ok().build();
+  }
+
+  /**
+   * Return the upload session with the given id, if it was created by the user.
+   */
+  private UploadSession findOwnUploadSession(String id, Principal principal) {
+    return uploadService.findById(id)
+        .filter(uploadSession -> uploadSession.getOwner().equals(principal.getName()))
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+  }
+
+  /**
+   * Return the SHA-256 hash of a Digest header (e.g. 'sha-256=X48E9qOokqqrvdts8nOJ...') or null,
+   * if the header doesn't contain one.
+   */
+  private static byte[] parseSha256(String digest) {
+    if (digest == null) {
+      return null;
+    }
+    for (String instance : digest.split(",")) {
+      instance = instance.trim();
+      if (instance.regionMatches(true, 0, SHA_256_DIGEST, 0, SHA_256_DIGEST.length())) {
+        try {
+          return Base64.getDecoder().decode(instance.substring(SHA_256_DIGEST.length()));
+        } catch (IllegalArgumentException e) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid digest");
+        }
+      }
+    }
+    return null;
+  }
+}
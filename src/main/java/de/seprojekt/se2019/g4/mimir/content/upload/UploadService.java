@@ -0,0 +1,269 @@
+package de.seprojekt.se2019.g4.mimir.content.upload;
+
+import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
+import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
+import de.seprojekt.se2019.g4.mimir.content.folder.Folder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * This service implements chunked uploads. The client creates an upload session, sends the
+ * content in numbered chunks and completes the session, which creates the artifact. Every chunk
+ * is written directly into a part file on disk and its length (and optionally its SHA-256 hash)
+ * is checked before the received length is stored, so an interrupted upload can be resumed with
+ * the next missing chunk. Sessions without a written chunk for the expiration time
+ * (app.uploadExpirationMs) are deleted.
+ */
+@Service
+public class UploadService {
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(UploadService.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long CLEANUP_INTERVAL_MS = 60 * 60 * 1000;
+
+  private UploadSessionRepository uploadSessionRepository;
+  private ArtifactService artifactService;
+  private Path uploadDirectory;
+  private int maxChunkSize;
+  private long expirationMs;
+  // sessions which are currently written by a request - chunks of a session are written one by one
+  private Set<String> busySessions = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public UploadService(
+      UploadSessionRepository uploadSessionRepository,
+      ArtifactService artifactService,
+      @Value("${app.uploadDirectory}") String uploadDirectory,
+      @Value("${app.uploadMaxChunkSize}") int maxChunkSize,
+      @Value("${app.uploadExpirationMs}") long expirationMs) throws IOException {
+    this.uploadSessionRepository = uploadSessionRepository;
+    this.artifactService = artifactService;
+    this.uploadDirectory = Paths.get(uploadDirectory).toAbsolutePath().normalize();
+    this.maxChunkSize = maxChunkSize;
+    this.expirationMs = expirationMs;
+    Files.createDirectories(this.uploadDirectory);
+  }
+
+  /**
+   * Return the upload session with the given id.
+   */
+  public Optional<UploadSession> findById(String id) {
+    return uploadSessionRepository.findById(id);
+  }
+
+  /**
+   * Create an upload session for a file with the given length. If no chunk size is given (or it
+   * is larger than allowed), the maximum chunk size will be used.
+   */
+  @Transactional
+  public UploadSession create(Folder parentFolder, String name, MediaType contentType,
+      long contentLength, Integer chunkSize, String owner) {
+    UploadSession uploadSession = new UploadSession();
+    uploadSession.setId(UUID.randomUUID().toString());
+    uploadSession.setParentId(parentFolder.getId());
+    uploadSession.setName(name);
+    uploadSession.setContentType(contentType);
+    uploadSession.setOwner(owner);
+    uploadSession.setContentLength(contentLength);
+    uploadSession.setChunkSize(
+        chunkSize == null ? maxChunkSize : Math.max(1, Math.min(chunkSize, maxChunkSize)));
+    uploadSession.setReceivedLength(0L);
+    uploadSession.setCreationDate(Instant.now());
+    uploadSession.setLastActivityDate(uploadSession.getCreationDate());
+    LOGGER.info("Creating upload session '{}' for '{}'", uploadSession.getId(), name);
+    return uploadSessionRepository.save(uploadSession);
+  }
+
+  /**
+   * Write the chunk with the given number. Chunks must be written in order, but a chunk which was
+   * already received can be sent again (e.g. if the response got lost) and will be ignored.
+   *
+   * @param expectedHash the SHA-256 hash of the chunk or null, if it shouldn't be checked
+   * @throws IllegalArgumentException if the chunk doesn't exist, has the wrong length or hash
+   * @throws IllegalStateException if a previous chunk is missing or the session is busy
+   */
+  public UploadSession writeChunk(UploadSession uploadSession, int chunkNumber,
+      InputStream content, byte[] expectedHash) throws IOException {
+    long offset = (long) chunkNumber * uploadSession.getChunkSize();
+    if (chunkNumber < 0 || offset >= uploadSession.getContentLength()) {
+      throw new IllegalArgumentException("Chunk " + chunkNumber + " does not exist");
+    }
+    lock(uploadSession);
+    try {
+      // the session may have been changed by another request in the meantime
+      UploadSession current = uploadSessionRepository.findById(uploadSession.getId())
+          .orElseThrow(() -> new IllegalStateException("Upload session was deleted"));
+      if (offset < current.getReceivedLength()) {
+        return current;
+      }
+      if (offset > current.getReceivedLength()) {
+        throw new IllegalStateException("Chunks before chunk " + chunkNumber + " are missing");
+      }
+      long chunkLength = Math.min(current.getChunkSize(), current.getContentLength() - offset);
+      writePart(current, offset, chunkLength, content, expectedHash);
+      current.setReceivedLength(offset + chunkLength);
+      current.setLastActivityDate(Instant.now());
+      return uploadSessionRepository.save(current);
+    } finally {
+      busySessions.remove(uploadSession.getId());
+    }
+  }
+
+  /**
+   * Create the artifact from a completely received upload session and delete the session. The
+   * part file is deleted after the commit, so the session can be completed again after a
+   * rollback.
+   *
+   * @throws IllegalStateException if chunks are missing or the session is busy
+   */
+  @Transactional
+  public Artifact complete(UploadSession uploadSession, Folder parentFolder, String author)
+      throws IOException {
+    if (!uploadSession.isComplete()) {
+      throw new IllegalStateException("Upload session is not complete");
+    }
+    lock(uploadSession);
+    try {
+      LOGGER.info("Completing upload session '{}'", uploadSession.getId());
+      Artifact artifact = artifactService.create(uploadSession.getName(), author,
+          uploadSession.getContentType(), partFile(uploadSession), parentFolder);
+      uploadSessionRepository.delete(uploadSession);
+      Path partFile = partFile(uploadSession);
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          try {
+            Files.deleteIfExists(partFile);
+          } catch (IOException e) {
+            LOGGER.warn("Could not delete part file '{}'", partFile, e);
+          }
+        }
+      });
+      return artifact;
+    } finally {
+      busySessions.remove(uploadSession.getId());
+    }
+  }
+
+  /**
+   * Delete the upload session and the content received so far.
+   */
+  @Transactional
+  public void delete(UploadSession uploadSession) throws IOException {
+    LOGGER.info("Deleting upload session '{}'", uploadSession.getId());
+    uploadSessionRepository.delete(uploadSession);
+    Files.deleteIfExists(partFile(uploadSession));
+  }
+
+  /**
+   * Delete all upload sessions without activity since the expiration time. A session is locked
+   * and loaded again before it is deleted, so a chunk which is written meanwhile isn't lost.
+   */
+  @Scheduled(fixedDelay = CLEANUP_INTERVAL_MS)
+  public void deleteExpiredSessions() throws IOException {
+    Instant expiration = Instant.now().minusMillis(expirationMs);
+    for (UploadSession uploadSession : uploadSessionRepository.findExpired(expiration)) {
+      if (!busySessions.add(uploadSession.getId())) {
+        continue;
+      }
+      try {
+        Optional<UploadSession> current = uploadSessionRepository.findById(uploadSession.getId());
+        if (current.isPresent() && current.get().getLastActivityDate() != null
+            && !current.get().getLastActivityDate().isBefore(expiration)) {
+          continue;
+        }
+        current.ifPresent(uploadSessionRepository::delete);
+        Files.deleteIfExists(partFile(uploadSession));
+        LOGGER.info("Deleted expired upload session '{}'", uploadSession.getId());
+      } finally {
+        busySessions.remove(uploadSession.getId());
+      }
+    }
+  }
+
+  /**
+   * Write the chunk at the given offset into the part file. Content after the offset (e.g. the
+   * rest of an interrupted chunk) will be overwritten. The part file is synced to disk before the
+   * received length is stored, so the stored length never points beyond the written content.
+   */
+  private void writePart(UploadSession uploadSession, long offset, long chunkLength,
+      InputStream content, byte[] expectedHash) throws IOException {
+    MessageDigest digest = newDigest();
+    try (FileChannel channel = FileChannel.open(partFile(uploadSession),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      if (channel.size() < offset) {
+        throw new IllegalStateException("Part file of upload session is incomplete");
+      }
+      channel.truncate(offset);
+      channel.position(offset);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long written = 0;
+      int read;
+      // read one byte more than expected to recognize chunks which are too long
+      while ((read = content.read(buffer, 0, (int) Math.min(buffer.length,
+          chunkLength - written + 1))) != -1) {
+        written += read;
+        if (written > chunkLength) {
+          channel.truncate(offset);
+          throw new IllegalArgumentException("Chunk is longer than " + chunkLength + " bytes");
+        }
+        digest.update(buffer, 0, read);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+        while (byteBuffer.hasRemaining()) {
+          channel.write(byteBuffer);
+        }
+      }
+      if (written < chunkLength) {
+        channel.truncate(offset);
+        throw new IllegalArgumentException("Chunk is shorter than " + chunkLength + " bytes");
+      }
+      if (expectedHash != null && !MessageDigest.isEqual(expectedHash, digest.digest())) {
+        channel.truncate(offset);
+        throw new IllegalArgumentException("Chunk does not match its hash");
+      }
+      channel.force(false);
+    }
+  }
+
+  private void lock(UploadSession uploadSession) {
+    if (!busySessions.add(uploadSession.getId())) {
+      throw new IllegalStateException("Upload session is busy");
+    }
+  }
+
+  private Path partFile(UploadSession uploadSession) {
+    return uploadDirectory.resolve(uploadSession.getId() + ".part");
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package de.seprojekt.se2019.g4.mimir.content.upload;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.time.Instant;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.springframework.http.MediaType;
+
+/**
+ * This class defines how the table upload_session should look like (which columns, which
+ * primary/foreign keys etc.) An upload session describes a chunked upload, which will become an
+ * artifact when all chunks were received. The parent folder is only referenced by its id, so
+ * deleting the folder isn't blocked by unfinished uploads.
+ */
+@Entity
+public class UploadSession {
+
+  @Id
+  @Column(length = 36)
+  private String id;
+
+  @Column
+  private Long parentId;
+
+  @Column(length = 512)
+  private String name;
+
+  @Column(length = 512)
+  private MediaType contentType;
+
+  @JsonIgnore
+  @Column
+  private String owner;
+
+  @Column
+  private Long contentLength;
+
+  @Column
+  private Integer chunkSize;
+
+  @Column
+  private Long receivedLength;
+
+  @Column
+  private Instant creationDate;
+
+  @Column
+  private Instant lastActivityDate;
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public Long getParentId() {
+    return parentId;
+  }
+
+  public void setParentId(Long parentId) {
+    this.parentId = parentId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public MediaType getContentType() {
+    return contentType;
+  }
+
+  public void setContentType(MediaType contentType) {
+    this.contentType = contentType;
+  }
+
+  public String getOwner() {
+    return owner;
+  }
+
+  public void setOwner(String owner) {
+    this.owner = owner;
+  }
+
+  public Long getContentLength() {
+    return contentLength;
+  }
+
+  public void setContentLength(Long contentLength) {
+    this.contentLength = contentLength;
+  }
+
+  public Integer getChunkSize() {
+    return chunkSize;
+  }
+
+  public void setChunkSize(Integer chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  public Long getReceivedLength() {
+    return receivedLength;
+  }
+
+  public void setReceivedLength(Long receivedLength) {
+    this.receivedLength = receivedLength;
+  }
+
+  public Instant getCreationDate() {
+    return creationDate;
+  }
+
+  public void setCreationDate(Instant creationDate) {
+    this.creationDate = creationDate;
+  }
+
+  public Instant getLastActivityDate() {
+    return lastActivityDate;
+  }
+
+  public void setLastActivityDate(Instant lastActivityDate) {
+    this.lastActivityDate = lastActivityDate;
+  }
+
+  /**
+   * Return true, if all chunks were received.
+   */
+  @JsonProperty("complete")
+  public boolean isComplete() {
+    return Objects.equals(receivedLength, contentLength);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    UploadSession that = (UploadSession) o;
+    return Objects.equals(id, that.id);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id);
+  }
+
+  @Override
+  public String toString() {
+    return "UploadSession{" +
+        "id='" + id + '\'' +
+        ", parentId=" + parentId +
+        ", name='" + name + '\'' +
+        ", contentType=" + contentType +
+        ", owner='" + owner + '\'' +
+        ", contentLength=" + contentLength +
+        ", chunkSize=" + chunkSize +
+        ", receivedLength=" + receivedLength +
+        ", creationDate=" + creationDate +
+        ", lastActivityDate=" + lastActivityDate +
+        '}';
+  }
+}
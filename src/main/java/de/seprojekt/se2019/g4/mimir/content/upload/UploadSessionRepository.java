@@ -0,0 +1,23 @@
+package de.seprojekt.se2019.g4.mimir.content.upload;
+
+import java.time.Instant;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * This interface will be implemented by Spring Data JPA. The implementation will help us to store
+ * {@link UploadSession} in the database and execute CRUD (create, read, update, delete) operation
+ * on the database.
+ */
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+  /**
+   * Return the upload sessions without activity since the given date (sessions without activity
+   * date, e.g. created before it existed, by their creation date).
+   */
+  @Query("select u from UploadSession u "
+      + "where coalesce(u.lastActivityDate, u.creationDate) < :expiration")
+  List<UploadSession> findExpired(@Param("expiration") Instant expiration);
+}
@@ -0,0 +1,307 @@
+package de.seprojekt.se2019.g4.mimir.content.zip;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * This service caches ZIP archives of folders on disk. An archive is identified by the id and the
+ * subtree version of its folder - as soon as anything inside the folder changes, the version is
+ * increased and the cached archive will not be used anymore. If the total size of the cached
+ * archives exceeds the limit (property app.zipCacheMaxBytes), the least recently used archives are
+ * deleted.
+ *
+ * <p>A missing archive is sent while it is written into the cache, so the first byte isn't
+ * delayed until the whole archive was written. Concurrent requests for the same missing archive
+ * don't wait for it, they send their own archive without caching it. Writing into the cache stops
+ * as soon as the archive exceeds the limit. The metric zip.cache (tag 'result': hit or miss) shows
+ * how often cached archives were used, the metric zip.cache.size the total size of the cached
+ * archives.
+ */
+@Service
+public class ZipCache {
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(ZipCache.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private Path directory;
+  private long maxBytes;
+  private Counter hits;
+  private Counter misses;
+  // guarded by this, the iteration order is the access order (least recently used first)
+  private final Map<Long, CachedArchive> archives = new LinkedHashMap<>(16, 0.75f, true);
+  private volatile long totalBytes;
+  private final Set<String> archivesInCreation = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public ZipCache(
+      @Value("${app.zipCacheDirectory}") String directory,
+      @Value("${app.zipCacheMaxBytes}") long maxBytes,
+      MeterRegistry meterRegistry) throws IOException {
+    this.directory = Paths.get(directory).toAbsolutePath();
+    this.maxBytes = maxBytes;
+    this.hits = meterRegistry.counter("zip.cache", "result", "hit");
+    this.misses = meterRegistry.counter("zip.cache", "result", "miss");
+    meterRegistry.gauge("zip.cache.size", this, zipCache -> zipCache.totalBytes);
+    Files.createDirectories(this.directory);
+    deleteArchives();
+  }
+
+  /**
+   * Write the archive of the given folder version into the given output stream. If it is not
+   * cached, it will be written by the given writer (and cached, unless another request is caching
+   * it already). The output stream will not be closed.
+   */
+  public void write(long folderId, long version, ArchiveWriter archiveWriter,
+      OutputStream outputStream) throws IOException {
+    InputStream archive = open(folderId, version);
+    if (archive != null) {
+      hits.increment();
+      try (InputStream content = archive) {
+        content.transferTo(outputStream);
+      }
+      return;
+    }
+    misses.increment();
+    String key = fileName(folderId, version);
+    if (!archivesInCreation.add(key)) {
+      archiveWriter.write(outputStream);
+      return;
+    }
+    try {
+      create(folderId, version, archiveWriter, outputStream);
+    } finally {
+      archivesInCreation.remove(key);
+    }
+  }
+
+  /**
+   * Write the archive into the given output stream and into a temporary file at the same time.
+   * The file is cached, if the archive was written completely and doesn't exceed the limit.
+   */
+  private void create(long folderId, long version, ArchiveWriter archiveWriter,
+      OutputStream outputStream) throws IOException {
+    Path temporaryFile = directory.resolve(UUID.randomUUID() + ".tmp");
+    CachingOutputStream cachingOutputStream = new CachingOutputStream(outputStream,
+        temporaryFile, maxBytes);
+    try {
+      archiveWriter.write(cachingOutputStream);
+      long size = cachingOutputStream.finishCaching();
+      if (size < 0) {
+        return;
+      }
+      Path file = directory.resolve(fileName(folderId, version));
+      Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      LOGGER.info("Cached ZIP archive of folder {} (version {}, {} bytes)", folderId, version,
+          size);
+      synchronized (this) {
+        put(folderId, new CachedArchive(version, file, size));
+      }
+    } finally {
+      cachingOutputStream.stopCaching();
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  /**
+   * Open the cached archive or return null, if it is not cached. The file is opened while holding
+   * the lock, so it can't be deleted before.
+   */
+  private synchronized InputStream open(long folderId, long version) throws IOException {
+    CachedArchive cachedArchive = archives.get(folderId);
+    if (cachedArchive == null || cachedArchive.version != version) {
+      return null;
+    }
+    return Files.newInputStream(cachedArchive.file);
+  }
+
+  /**
+   * Add an archive (replacing an older version of the folder) and delete the least recently used
+   * archives, until the total size is below the limit. Must be called while holding the lock.
+   */
+  private void put(long folderId, CachedArchive cachedArchive) {
+    CachedArchive previousArchive = archives.put(folderId, cachedArchive);
+    long total = totalBytes + cachedArchive.size;
+    if (previousArchive != null) {
+      total -= delete(previousArchive);
+    }
+    Iterator<CachedArchive> iterator = archives.values().iterator();
+    while (total > maxBytes && iterator.hasNext()) {
+      CachedArchive leastRecentlyUsed = iterator.next();
+      if (leastRecentlyUsed != cachedArchive) {
+        iterator.remove();
+        total -= delete(leastRecentlyUsed);
+      }
+    }
+    totalBytes = total;
+  }
+
+  private long delete(CachedArchive cachedArchive) {
+    try {
+      Files.deleteIfExists(cachedArchive.file);
+    } catch (IOException e) {
+      LOGGER.warn("Could not delete cached ZIP archive '{}'", cachedArchive.file, e);
+    }
+    return cachedArchive.size;
+  }
+
+  /**
+   * Delete the archives of previous runs - folder ids and versions may be reused (e.g. by an
+   * in-memory database), so they can't be trusted.
+   */
+  private void deleteArchives() throws IOException {
+    try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+      for (Path file : directoryStream) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  private static String fileName(long folderId, long version) {
+    return folderId + "-" + version + ".zip";
+  }
+
+  /**
+   * Writes the content of an archive.
+   */
+  @FunctionalInterface
+  public interface ArchiveWriter {
+
+    void write(OutputStream outputStream) throws IOException;
+  }
+
+  /**
+   * This output stream writes into the given output stream and into a file. Writing into the file
+   * stops (and the file is deleted), if it exceeds the limit or can't be written - writing into
+   * the given output stream goes on. Closing this stream doesn't close the given output stream.
+   */
+  private static class CachingOutputStream extends OutputStream {
+
+    private final OutputStream outputStream;
+    private final Path file;
+    private final long maxBytes;
+    // null, if writing into the file was stopped
+    private OutputStream fileOutputStream;
+    private long size;
+
+    private CachingOutputStream(OutputStream outputStream, Path file, long maxBytes)
+        throws IOException {
+      this.outputStream = outputStream;
+      this.file = file;
+      this.maxBytes = maxBytes;
+      this.fileOutputStream = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      outputStream.write(b);
+      writeToFile(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      outputStream.write(b, off, len);
+      writeToFile(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      outputStream.flush();
+    }
+
+    @Override
+    public void close() {
+      stopCaching();
+    }
+
+    private void writeToFile(byte[] b, int off, int len) {
+      if (fileOutputStream == null) {
+        return;
+      }
+      size += len;
+      if (size > maxBytes) {
+        // too large for the cache
+        stopCaching();
+        return;
+      }
+      try {
+        fileOutputStream.write(b, off, len);
+      } catch (IOException e) {
+        LOGGER.warn("Could not write ZIP archive '{}' into the cache", file, e);
+        stopCaching();
+      }
+    }
+
+    /**
+     * Close the file and return its size or -1, if writing into the file was stopped.
+     */
+    private long finishCaching() {
+      if (fileOutputStream == null) {
+        return -1;
+      }
+      try {
+        fileOutputStream.close();
+      } catch (IOException e) {
+        LOGGER.warn("Could not write ZIP archive '{}' into the cache", file, e);
+        stopCaching();
+        return -1;
+      }
+      fileOutputStream = null;
+      return size;
+    }
+
+    /**
+     * Stop writing into the file and delete it.
+     */
+    private void stopCaching() {
+      if (fileOutputStream == null) {
+        return;
+      }
+      try {
+        fileOutputStream.close();
+      } catch (IOException e) {
+        // the file is deleted anyway
+      }
+      fileOutputStream = null;
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        LOGGER.warn("Could not delete ZIP archive '{}'", file, e);
+      }
+    }
+  }
+
+  private static class CachedArchive {
+
+    private final long version;
+    private final Path file;
+    private final long size;
+
+    private CachedArchive(long version, Path file, long size) {
+      this.version = version;
+      this.file = file;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package de.seprojekt.se2019.g4.mimir.content.zip;
+
+import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
+import java.time.Instant;
+
+/**
+ * This class describes one entry of a ZIP archive: either a directory or the content of an
+ * artifact. The dates of the entries don't depend on the time the archive is written, so archives
+ * of the same folder version are equal.
+ */
+public class ZipItem {
+
+  // used for entries without date (the earliest date of a ZIP entry)
+  static final Instant DEFAULT_LAST_MODIFIED = Instant.parse("1980-01-01T00:00:00Z");
+
+  private final String name;
+  private final Artifact artifact;
+  private final Instant lastModified;
+
+  private ZipItem(String name, Artifact artifact, Instant lastModified) {
+    this.name = name;
+    this.artifact = artifact;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Create an entry for a directory with the given date (e.g. the date of the newest artifact in
+   * the archive, null if there is none). The name must not end with '/'.
+   */
+  public static ZipItem directory(String name, Instant lastModified) {
+    return new ZipItem(name + "/", null,
+        lastModified != null ? lastModified : DEFAULT_LAST_MODIFIED);
+  }
+
+  /**
+   * Create an entry with the content of the given artifact.
+   */
+  public static ZipItem artifact(String name, Artifact artifact) {
+    Instant lastModified = artifact.getCreationDate();
+    return new ZipItem(name, artifact,
+        lastModified != null ? lastModified : DEFAULT_LAST_MODIFIED);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Return the artifact or null, if this entry is a directory.
+   */
+  public Artifact getArtifact() {
+    return artifact;
+  }
+
+  public Instant getLastModified() {
+    return lastModified;
+  }
+
+  public boolean isDirectory() {
+    return artifact == null;
+  }
+
+  @Override
+  public String toString() {
+    return "ZipItem{" +
+        "name='" + name + '\'' +
+        ", artifact=" + artifact +
+        ", lastModified=" + lastModified +
+        '}';
+  }
+}
@@ -0,0 +1,290 @@
+package de.seprojekt.se2019.g4.mimir.content.zip;
+
+import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
+import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
+import de.seprojekt.se2019.g4.mimir.content.blob.BlobService;
+import de.seprojekt.se2019.g4.mimir.content.blob.StoredBlob;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * This service writes ZIP archives. Artifacts whose content is already compressed (judged by their
+ * content type, e.g. JPEG images, videos or PDFs) are stored without compression - compressing them
+ * again costs a lot of CPU time and saves (almost) nothing. Their checksum was computed on upload,
+ * so their content is streamed directly from the blob store.
+ *
+ * <p>All other artifacts are compressed in parallel by a bounded pool of worker threads (property
+ * app.zipCompressionThreads), each into a temporary file. The entries are written strictly in the
+ * given order; only a small window of entries is compressed ahead of the writer, so the used disk
+ * space does not depend on the size of the archive.
+ */
+@Service
+public class ZipService {
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(ZipService.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final Set<String> COMPRESSED_TYPES = Set.of(
+      "image/jpeg", "image/png", "image/gif", "image/webp",
+      "application/zip", "application/gzip", "application/x-gzip", "application/pdf",
+      "application/x-7z-compressed", "application/x-rar-compressed", "application/vnd.rar",
+      "application/x-bzip2", "application/x-xz", "application/epub+zip");
+  // e.g. .docx, .xlsx and .pptx files are ZIP archives
+  private static final String OPEN_XML_PREFIX = "application/vnd.openxmlformats-officedocument.";
+
+  private ArtifactService artifactService;
+  private BlobService blobService;
+  private ExecutorService executorService;
+  private int windowSize;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public ZipService(
+      ArtifactService artifactService,
+      BlobService blobService,
+      @Value("${app.zipCompressionThreads}") int compressionThreads) {
+    this.artifactService = artifactService;
+    this.blobService = blobService;
+    this.executorService = Executors.newFixedThreadPool(compressionThreads,
+        new CustomizableThreadFactory("zip-compression-"));
+    this.windowSize = 2 * compressionThreads;
+  }
+
+  /**
+   * Write a ZIP archive with the given entries (in this order) into the given output stream. The
+   * output stream will not be closed.
+   */
+  public void write(List<ZipItem> items, OutputStream outputStream) throws IOException {
+    Map<String, StoredBlob> storedBlobs = blobService.findByHashes(items.stream()
+        .filter(item -> !item.isDirectory())
+        .map(item -> item.getArtifact().getContentHash())
+        .collect(Collectors.toSet()));
+
+    ZipWriter zipWriter = new ZipWriter(outputStream);
+    TemporaryFiles temporaryFiles = new TemporaryFiles();
+    Deque<Future<PreparedEntry>> window = new ArrayDeque<>();
+    Iterator<ZipItem> iterator = items.iterator();
+    try {
+      while (iterator.hasNext() || !window.isEmpty()) {
+        while (iterator.hasNext() && window.size() < windowSize) {
+          window.add(prepare(iterator.next(), storedBlobs, temporaryFiles));
+        }
+        write(zipWriter, await(window.poll()), temporaryFiles);
+      }
+      zipWriter.finish();
+    } finally {
+      // stop the compression of entries, which will not be written anymore (e.g. the client has
+      // closed the connection)
+      window.forEach(future -> future.cancel(true));
+      temporaryFiles.deleteAll();
+    }
+  }
+
+  /**
+   * Check if the content of the given type is already compressed.
+   */
+  static boolean isCompressed(MediaType contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    String type = contentType.getType() + "/" + contentType.getSubtype();
+    return COMPRESSED_TYPES.contains(type) || type.startsWith(OPEN_XML_PREFIX)
+        || contentType.getType().equals("video") || contentType.getType().equals("audio");
+  }
+
+  /**
+   * Return the entry (with checksum and sizes) for the given item. If its content must be
+   * compressed or its checksum is unknown, this will be done by the worker threads.
+   */
+  private Future<PreparedEntry> prepare(ZipItem item, Map<String, StoredBlob> storedBlobs,
+      TemporaryFiles temporaryFiles) {
+    if (item.isDirectory()) {
+      return CompletableFuture.completedFuture(new PreparedEntry(item, ZipWriter.STORED, 0, 0, 0));
+    }
+    Artifact artifact = item.getArtifact();
+    StoredBlob storedBlob = storedBlobs.get(artifact.getContentHash());
+    if (!isCompressed(artifact.getContentType())) {
+      return executorService.submit(() -> deflate(item, temporaryFiles));
+    }
+    if (storedBlob == null || storedBlob.getCrc32() == null) {
+      return executorService.submit(() -> checksum(item));
+    }
+    return CompletableFuture.completedFuture(new PreparedEntry(item, ZipWriter.STORED,
+        storedBlob.getCrc32(), storedBlob.getContentLength(), storedBlob.getContentLength()));
+  }
+
+  /**
+   * Compute the checksum and the size of the content of the given item.
+   */
+  private PreparedEntry checksum(ZipItem item) throws IOException {
+    CRC32 crc32 = new CRC32();
+    long size = 0;
+    try (InputStream content = artifactService.findArtifactContent(item.getArtifact())) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = content.read(buffer)) != -1) {
+        crc32.update(buffer, 0, read);
+        size += read;
+      }
+    }
+    return new PreparedEntry(item, ZipWriter.STORED, crc32.getValue(), size, size);
+  }
+
+  /**
+   * Compress the content of the given item into a temporary file. If the compressed content is not
+   * smaller, the content will be stored without compression.
+   */
+  private PreparedEntry deflate(ZipItem item, TemporaryFiles temporaryFiles) throws IOException {
+    Path compressedFile = temporaryFiles.create();
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    CRC32 crc32 = new CRC32();
+    long size;
+    try (CheckedInputStream content = new CheckedInputStream(
+        artifactService.findArtifactContent(item.getArtifact()), crc32);
+        DeflaterOutputStream compressed = new DeflaterOutputStream(
+            // don't recreate the file, if it was deleted because the archive was aborted
+            Files.newOutputStream(compressedFile, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), deflater, BUFFER_SIZE)) {
+      size = content.transferTo(compressed);
+    } finally {
+      deflater.end();
+    }
+
+    long compressedSize = Files.size(compressedFile);
+    if (compressedSize >= size) {
+      temporaryFiles.delete(compressedFile);
+      return new PreparedEntry(item, ZipWriter.STORED, crc32.getValue(), size, size);
+    }
+    PreparedEntry entry = new PreparedEntry(item, ZipWriter.DEFLATED, crc32.getValue(), size,
+        compressedSize);
+    entry.compressedFile = compressedFile;
+    return entry;
+  }
+
+  /**
+   * Write the given entry and delete its temporary file.
+   */
+  private void write(ZipWriter zipWriter, PreparedEntry entry, TemporaryFiles temporaryFiles)
+      throws IOException {
+    ZipItem item = entry.item;
+    if (item.isDirectory()) {
+      zipWriter.putDirectory(item.getName(), item.getLastModified());
+      return;
+    }
+    try (InputStream data = entry.compressedFile != null
+        ? Files.newInputStream(entry.compressedFile)
+        : artifactService.findArtifactContent(item.getArtifact())) {
+      zipWriter.putEntry(item.getName(), item.getLastModified(), entry.method, entry.crc32,
+          entry.size, entry.compressedSize, data);
+    } finally {
+      if (entry.compressedFile != null) {
+        temporaryFiles.delete(entry.compressedFile);
+      }
+    }
+  }
+
+  private static PreparedEntry await(Future<PreparedEntry> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for ZIP entry");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Could not prepare ZIP entry", e.getCause());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executorService.shutdownNow();
+  }
+
+  /**
+   * An entry of the archive, whose checksum and sizes are known.
+   */
+  private static class PreparedEntry {
+
+    private final ZipItem item;
+    private final int method;
+    private final long crc32;
+    private final long size;
+    private final long compressedSize;
+    private Path compressedFile;
+
+    private PreparedEntry(ZipItem item, int method, long crc32, long size, long compressedSize) {
+      this.item = item;
+      this.method = method;
+      this.crc32 = crc32;
+      this.size = size;
+      this.compressedSize = compressedSize;
+    }
+  }
+
+  /**
+   * The temporary files of one archive. After the archive was written (or aborted), all files are
+   * deleted - files created by workers afterwards are deleted immediately.
+   */
+  private static class TemporaryFiles {
+
+    private final Set<Path> files = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private Path create() throws IOException {
+      Path file = Files.createTempFile("zip-", ".deflate");
+      files.add(file);
+      if (closed) {
+        delete(file);
+        throw new InterruptedIOException("ZIP archive was aborted");
+      }
+      return file;
+    }
+
+    private void delete(Path file) {
+      files.remove(file);
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        LOGGER.warn("Could not delete temporary file '{}'", file, e);
+      }
+    }
+
+    private void deleteAll() {
+      closed = true;
+      for (Path file : files) {
+        delete(file);
+      }
+    }
+  }
+}
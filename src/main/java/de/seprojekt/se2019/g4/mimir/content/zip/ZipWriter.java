@@ -0,0 +1,246 @@
+package de.seprojekt.se2019.g4.mimir.content.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class writes a ZIP archive (PKWARE APPNOTE 6.3) entry by entry into an output stream. In
+ * contrast to {@link java.util.zip.ZipOutputStream} the data of an entry is written as it is, so
+ * entries can be compressed before (e.g. in parallel). Because the checksum and the sizes of every
+ * entry are known before its data is written, they are written into the local header and no data
+ * descriptors are needed. Large archives (more than 65535 entries or 4 GB) are written with the
+ * Zip64 extensions.
+ */
+class ZipWriter {
+
+  static final int STORED = 0;
+  static final int DEFLATED = 8;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int VERSION_DEFAULT = 20;
+  private static final int VERSION_ZIP64 = 45;
+  private static final int FLAG_UTF8 = 0x0800;
+  private static final int ATTRIBUTE_DIRECTORY = 0x10;
+  private static final long MAX_32 = 0xFFFFFFFFL;
+  private static final int MAX_16 = 0xFFFF;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final OutputStream outputStream;
+  private final List<Entry> entries = new ArrayList<>();
+  private long offset;
+
+  ZipWriter(OutputStream outputStream) {
+    this.outputStream = outputStream;
+  }
+
+  /**
+   * Write a directory entry.
+   */
+  void putDirectory(String name, Instant lastModified) throws IOException {
+    putEntry(name, lastModified, STORED, 0, 0, 0, InputStream.nullInputStream());
+  }
+
+  /**
+   * Write an entry. The data must already be compressed with the given method and must have the
+   * given compressed size.
+   */
+  void putEntry(String name, Instant lastModified, int method, long crc32, long size,
+      long compressedSize, InputStream data) throws IOException {
+    Entry entry = new Entry(name.getBytes(StandardCharsets.UTF_8), toDosTime(lastModified),
+        method, crc32, size, compressedSize, offset);
+    boolean zip64 = size >= MAX_32 || compressedSize >= MAX_32;
+
+    writeInt(LOCAL_HEADER_SIGNATURE);
+    writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+    writeShort(FLAG_UTF8);
+    writeShort(method);
+    writeInt(entry.dosTime);
+    writeInt(crc32);
+    writeInt(zip64 ? MAX_32 : compressedSize);
+    writeInt(zip64 ? MAX_32 : size);
+    writeShort(entry.name.length);
+    writeShort(zip64 ? 20 : 0);
+    write(entry.name);
+    if (zip64) {
+      writeShort(ZIP64_EXTRA_ID);
+      writeShort(16);
+      writeLong(size);
+      writeLong(compressedSize);
+    }
+
+    byte[] buffer = new byte[BUFFER_SIZE];
+    long written = 0;
+    int read;
+    while ((read = data.read(buffer)) != -1) {
+      outputStream.write(buffer, 0, read);
+      written += read;
+    }
+    offset += written;
+    if (written != compressedSize) {
+      throw new IOException("Entry '" + name + "' has " + written + " instead of "
+          + compressedSize + " bytes");
+    }
+    entries.add(entry);
+  }
+
+  /**
+   * Write the central directory. The output stream will not be closed.
+   */
+  void finish() throws IOException {
+    long centralDirectoryOffset = offset;
+    for (Entry entry : entries) {
+      writeCentralHeader(entry);
+    }
+    long centralDirectorySize = offset - centralDirectoryOffset;
+
+    if (entries.size() >= MAX_16 || centralDirectorySize >= MAX_32
+        || centralDirectoryOffset >= MAX_32) {
+      long zip64EndOffset = offset;
+      writeInt(ZIP64_END_SIGNATURE);
+      writeLong(44);
+      writeShort(VERSION_ZIP64);
+      writeShort(VERSION_ZIP64);
+      writeInt(0);
+      writeInt(0);
+      writeLong(entries.size());
+      writeLong(entries.size());
+      writeLong(centralDirectorySize);
+      writeLong(centralDirectoryOffset);
+
+      writeInt(ZIP64_LOCATOR_SIGNATURE);
+      writeInt(0);
+      writeLong(zip64EndOffset);
+      writeInt(1);
+    }
+
+    writeInt(END_SIGNATURE);
+    writeShort(0);
+    writeShort(0);
+    writeShort(Math.min(entries.size(), MAX_16));
+    writeShort(Math.min(entries.size(), MAX_16));
+    writeInt(Math.min(centralDirectorySize, MAX_32));
+    writeInt(Math.min(centralDirectoryOffset, MAX_32));
+    writeShort(0);
+    outputStream.flush();
+  }
+
+  private void writeCentralHeader(Entry entry) throws IOException {
+    // the Zip64 extra field contains only the values which don't fit (in this order)
+    ByteArrayOutputStream zip64Values = new ByteArrayOutputStream();
+    if (entry.size >= MAX_32) {
+      zip64Values.writeBytes(toLittleEndian(entry.size, 8));
+    }
+    if (entry.compressedSize >= MAX_32) {
+      zip64Values.writeBytes(toLittleEndian(entry.compressedSize, 8));
+    }
+    if (entry.offset >= MAX_32) {
+      zip64Values.writeBytes(toLittleEndian(entry.offset, 8));
+    }
+    boolean zip64 = zip64Values.size() > 0;
+    int version = zip64 ? VERSION_ZIP64 : VERSION_DEFAULT;
+    boolean directory = entry.name.length > 0 && entry.name[entry.name.length - 1] == '/';
+
+    writeInt(CENTRAL_HEADER_SIGNATURE);
+    writeShort(version);
+    writeShort(version);
+    writeShort(FLAG_UTF8);
+    writeShort(entry.method);
+    writeInt(entry.dosTime);
+    writeInt(entry.crc32);
+    writeInt(Math.min(entry.compressedSize, MAX_32));
+    writeInt(Math.min(entry.size, MAX_32));
+    writeShort(entry.name.length);
+    writeShort(zip64 ? zip64Values.size() + 4 : 0);
+    writeShort(0);
+    writeShort(0);
+    writeShort(0);
+    writeInt(directory ? ATTRIBUTE_DIRECTORY : 0);
+    writeInt(Math.min(entry.offset, MAX_32));
+    write(entry.name);
+    if (zip64) {
+      writeShort(ZIP64_EXTRA_ID);
+      writeShort(zip64Values.size());
+      write(zip64Values.toByteArray());
+    }
+  }
+
+  /**
+   * Convert the given instant into the MS-DOS date and time format (local time, 2 seconds
+   * precision, not before 1980).
+   */
+  static long toDosTime(Instant instant) {
+    LocalDateTime time = LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+    if (time.getYear() < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return (long) (time.getYear() - 1980) << 25
+        | time.getMonthValue() << 21
+        | time.getDayOfMonth() << 16
+        | time.getHour() << 11
+        | time.getMinute() << 5
+        | time.getSecond() >> 1;
+  }
+
+  private void writeShort(int value) throws IOException {
+    write(toLittleEndian(value, 2));
+  }
+
+  private void writeInt(long value) throws IOException {
+    write(toLittleEndian(value, 4));
+  }
+
+  private void writeLong(long value) throws IOException {
+    write(toLittleEndian(value, 8));
+  }
+
+  private void write(byte[] bytes) throws IOException {
+    outputStream.write(bytes);
+    offset += bytes.length;
+  }
+
+  private static byte[] toLittleEndian(long value, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (value >>> (8 * i));
+    }
+    return bytes;
+  }
+
+  /**
+   * The values of a written entry, which are needed for the central directory.
+   */
+  private static class Entry {
+
+    private final byte[] name;
+    private final long dosTime;
+    private final int method;
+    private final long crc32;
+    private final long size;
+    private final long compressedSize;
+    private final long offset;
+
+    private Entry(byte[] name, long dosTime, int method, long crc32, long size,
+        long compressedSize, long offset) {
+      this.name = name;
+      this.dosTime = dosTime;
+      this.method = method;
+      this.crc32 = crc32;
+      this.size = size;
+      this.compressedSize = compressedSize;
+      this.offset = offset;
+    }
+  }
+}
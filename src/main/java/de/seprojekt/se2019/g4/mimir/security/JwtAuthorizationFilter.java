@@ -2,6 +2,7 @@ package de.seprojekt.se2019.g4.mimir.security;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Optional;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -58,16 +59,18 @@ public class JwtAuthorizationFilter extends BasicAuthenticationFilter {
       token = token.replace("Bearer ", "");
     }
 
-    if (!jwtTokenProvider.validateToken(token)) {
+    Optional<JwtClaims> claims = jwtTokenProvider.parseToken(token);
+    if (claims.isEmpty() || claims.get().getSubject() == null) {
       return null;
     }
 
-    var username = jwtTokenProvider.getPayload(token, "sub");
-    if (username.equals(JwtPrincipal.shareLinkUserName)) {
-      var sharedEntityId = Long.parseLong(jwtTokenProvider.getPayload(token, "id"));
-      var sharedEntityType = jwtTokenProvider.getPayload(token, "type");
+    var username = claims.get().getSubject();
+    if (JwtPrincipal.shareLinkUserName.equals(username)) {
+      var sharedEntityId = Long.parseLong(claims.get().get("id"));
+      var sharedEntityType = claims.get().get("type");
+      var sharedFolderPath = claims.get().get("path");
       return new UsernamePasswordAuthenticationToken(
-          new JwtPrincipal(username, sharedEntityId, sharedEntityType), null,
+          new JwtPrincipal(username, sharedEntityId, sharedEntityType, sharedFolderPath), null,
           Collections.emptyList());
     } else {
       return new UsernamePasswordAuthenticationToken(new JwtPrincipal(username), null,
@@ -0,0 +1,56 @@
+package de.seprojekt.se2019.g4.mimir.security;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class contains the claims of a verified JWT. Instances are immutable, so they can be shared
+ * by all requests with the same token.
+ */
+public final class JwtClaims {
+
+  private final Map<String, String> claims;
+  private final Instant expiration;
+
+  public JwtClaims(Map<String, ?> claims, Instant expiration) {
+    Map<String, String> stringClaims = new HashMap<>();
+    claims.forEach((key, value) -> {
+      if (value instanceof String) {
+        stringClaims.put(key, (String) value);
+      }
+    });
+    this.claims = Map.copyOf(stringClaims);
+    this.expiration = expiration;
+  }
+
+  /**
+   * Return the value of the claim with the given name (null, if the token doesn't contain it).
+   */
+  public String get(String name) {
+    return claims.get(name);
+  }
+
+  public String getSubject() {
+    return get("sub");
+  }
+
+  public Instant getExpiration() {
+    return expiration;
+  }
+
+  /**
+   * Check if the token is expired at the given time.
+   */
+  public boolean isExpired(Instant now) {
+    return expiration != null && !now.isBefore(expiration);
+  }
+
+  @Override
+  public String toString() {
+    return "JwtClaims{" +
+        "claims=" + claims +
+        ", expiration=" + expiration +
+        '}';
+  }
+}
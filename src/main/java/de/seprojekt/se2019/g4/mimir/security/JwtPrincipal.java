@@ -10,11 +10,18 @@ public class JwtPrincipal implements Principal {
   private String name;
   private Long sharedEntityId;
   private String sharedEntityType;
+  private String sharedFolderPath;
 
   public JwtPrincipal(String name, Long sharedEntityId, String sharedEntityType) {
+    this(name, sharedEntityId, sharedEntityType, null);
+  }
+
+  public JwtPrincipal(String name, Long sharedEntityId, String sharedEntityType,
+      String sharedFolderPath) {
     this.name = name;
     this.sharedEntityId = sharedEntityId;
     this.sharedEntityType = sharedEntityType;
+    this.sharedFolderPath = sharedFolderPath;
   }
 
   public JwtPrincipal(String name) {
@@ -44,4 +51,12 @@ public class JwtPrincipal implements Principal {
   public String getSharedEntityType() {
     return sharedEntityType;
   }
+
+  /**
+   * Return the path of the shared folder at the time the share token was generated (null for
+   * artifacts and for tokens generated before the path was added).
+   */
+  public String getSharedFolderPath() {
+    return sharedFolderPath;
+  }
 }
@@ -3,15 +3,26 @@ package de.seprojekt.se2019.g4.mimir.security;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import de.seprojekt.se2019.g4.mimir.security.user.User;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -19,44 +30,86 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.ldap.userdetails.LdapUserDetails;
 import org.springframework.stereotype.Component;
 
+/**
+ * This component generates and verifies the JWTs. The signing key is derived once from the secret
+ * (property app.jwtSecret). The claims of recently verified tokens are kept in memory until the
+ * tokens expire (at most app.jwtCacheMaxEntries tokens, the least recently used are removed), so
+ * the signature of a token is usually verified once and not with every request. The tokens
+ * themselves are not kept: an entry is found by the first bytes of the SHA-256 digest of the token
+ * and the whole digest is compared in constant time.
+ *
+ * <p>The metric jwt.cache (tag 'result': hit or miss) shows how often verified claims were used.
+ */
 @Component
 public class JwtTokenProvider {
 
   private static final Logger log = LoggerFactory.getLogger(JwtAuthorizationFilter.class);
 
-  @Value("${app.jwtSecret}")
-  private String jwtSecret;
-
-  @Value("${app.jwtExpirationMs}")
+  private Key key;
   private Long jwtExpirationMs;
-
-  @Value("${app.jwtDownloadExpirationMs}")
   private Long jwtDownloadExpirationMs;
-
-  @Value("${app.jwtRegistrationExpirationMs}")
   private Long jwtRegistrationExpirationMs;
+  private int cacheMaxEntries;
+  private Counter hits;
+  private Counter misses;
+  // guarded by this, the key is the start of the digest of the token, the iteration order is the
+  // access order (least recently used first)
+  private final Map<Long, VerifiedToken> verifiedTokens = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, VerifiedToken> eldest) {
+      return size() > cacheMaxEntries;
+    }
+  };
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public JwtTokenProvider(
+      @Value("${app.jwtSecret}") String jwtSecret,
+      @Value("${app.jwtExpirationMs}") Long jwtExpirationMs,
+      @Value("${app.jwtDownloadExpirationMs}") Long jwtDownloadExpirationMs,
+      @Value("${app.jwtRegistrationExpirationMs}") Long jwtRegistrationExpirationMs,
+      @Value("${app.jwtCacheMaxEntries}") int cacheMaxEntries,
+      MeterRegistry meterRegistry) {
+    this.key = Keys.hmacShaKeyFor(jwtSecret.getBytes());
+    this.jwtExpirationMs = jwtExpirationMs;
+    this.jwtDownloadExpirationMs = jwtDownloadExpirationMs;
+    this.jwtRegistrationExpirationMs = jwtRegistrationExpirationMs;
+    this.cacheMaxEntries = cacheMaxEntries;
+    this.hits = meterRegistry.counter("jwt.cache", "result", "hit");
+    this.misses = meterRegistry.counter("jwt.cache", "result", "miss");
+  }
 
   public String generateToken(Authentication auth) {
     var user = ((LdapUserDetails) auth.getPrincipal());
     return Jwts.builder()
-        .signWith(key())
+        .signWith(key)
         .setSubject(user.getUsername())
         .setExpiration(new Date(System.currentTimeMillis() + jwtExpirationMs))
         .compact();
   }
 
-  public String generateDownloadToken(Long sharedEntityId, String sharedEntityType)
-      throws JsonProcessingException {
-    return this.generateShareToken(sharedEntityId, sharedEntityType, jwtDownloadExpirationMs);
+  public String generateDownloadToken(Long sharedEntityId, String sharedEntityType,
+      String sharedFolderPath) throws JsonProcessingException {
+    return this.generateShareToken(sharedEntityId, sharedEntityType, sharedFolderPath,
+        jwtDownloadExpirationMs);
   }
 
+  /**
+   * Generate a token for an anonymous user, which may access the shared artifact or folder. For
+   * folders the path of the folder is added (claim 'path'), so the authorization for the content
+   * of the folder can be checked without loading the folder.
+   */
   public String generateShareToken(Long sharedEntityId, String sharedEntityType,
-      Long expirationMs)
+      String sharedFolderPath, Long expirationMs)
       throws JsonProcessingException {
     Map<String, Object> claims = new HashMap<>();
     claims.put("sub", JwtPrincipal.shareLinkUserName);
     claims.put("id", String.valueOf(sharedEntityId));
     claims.put("type", sharedEntityType);
+    if (sharedFolderPath != null) {
+      claims.put("path", sharedFolderPath);
+    }
 
     String token = this.generateShareTokenWithClaims(claims, expirationMs);
     ObjectMapper om = new ObjectMapper();
@@ -80,50 +133,91 @@ public class JwtTokenProvider {
     }
 
     return Jwts.builder()
-        .signWith(key())
+        .signWith(key)
         .setClaims(claims)
         .setExpiration(new Date(System.currentTimeMillis() + expirationMs))
         .compact();
   }
 
-  private Key key() {
-    return Keys.hmacShaKeyFor(jwtSecret.getBytes());
+  /**
+   * Verify the given token and return its claims. The claims of a token are cached until it
+   * expires, so the signature isn't verified again for the following requests. An empty optional
+   * is returned, if the token is invalid or expired.
+   */
+  public Optional<JwtClaims> parseToken(String token) {
+    if (token == null || token.isEmpty()) {
+      log.warn("Request to parse empty or null JWT : {} failed", token);
+      return Optional.empty();
+    }
+    Instant now = Instant.now();
+    byte[] digest = digest(token);
+    Long digestKey = ByteBuffer.wrap(digest).getLong();
+    JwtClaims claims = null;
+    synchronized (this) {
+      VerifiedToken verifiedToken = verifiedTokens.get(digestKey);
+      if (verifiedToken != null && MessageDigest.isEqual(verifiedToken.digest, digest)) {
+        claims = verifiedToken.claims;
+        if (claims.isExpired(now)) {
+          verifiedTokens.remove(digestKey);
+          claims = null;
+        }
+      }
+    }
+    if (claims != null) {
+      hits.increment();
+      return Optional.of(claims);
+    }
+    misses.increment();
+    claims = verifyToken(token);
+    if (claims == null || claims.isExpired(now)) {
+      return Optional.empty();
+    }
+    synchronized (this) {
+      verifiedTokens.put(digestKey, new VerifiedToken(digest, claims));
+    }
+    return Optional.of(claims);
   }
 
-  public boolean validateToken(String token) {
+  private JwtClaims verifyToken(String token) {
     try {
-      Jwts.parser()
-          .setSigningKey(key())
-          .parseClaimsJws(token);
-      return true;
+      Claims body = Jwts.parser()
+          .setSigningKey(key)
+          .parseClaimsJws(token)
+          .getBody();
+      Date expiration = body.getExpiration();
+      return new JwtClaims(body, expiration == null ? null : expiration.toInstant());
     } catch (ExpiredJwtException exception) {
       log.warn("Request to parse expired JWT : {} failed : {}", token, exception.getMessage());
     } catch (UnsupportedJwtException exception) {
       log.warn("Request to parse unsupported JWT : {} failed : {}", token, exception.getMessage());
     } catch (MalformedJwtException exception) {
       log.warn("Request to parse invalid JWT : {} failed : {}", token, exception.getMessage());
+    } catch (JwtException exception) {
+      log.warn("Request to parse JWT : {} failed : {}", token, exception.getMessage());
     } catch (IllegalArgumentException exception) {
       log.warn("Request to parse empty or null JWT : {} failed : {}", token,
           exception.getMessage());
     }
-
-    return false;
+    return null;
   }
 
-  public String getPayload(String token, String key) {
-    return (String) Jwts.parser()
-        .setSigningKey(key())
-        .parseClaimsJws(token)
-        .getBody()
-        .get(key);
+  private static byte[] digest(String token) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
   }
 
-  public Date getExpiration(String token) {
-    return Jwts.parser()
-        .setSigningKey(key())
-        .parseClaimsJws(token)
-        .getBody()
-        .getExpiration();
+  private static class VerifiedToken {
+
+    private final byte[] digest;
+    private final JwtClaims claims;
+
+    private VerifiedToken(byte[] digest, JwtClaims claims) {
+      this.digest = digest;
+      this.claims = claims;
+    }
   }
 
 }
@@ -1,8 +1,10 @@
 package de.seprojekt.se2019.g4.mimir.security.registration;
 
+import de.seprojekt.se2019.g4.mimir.security.JwtClaims;
 import de.seprojekt.se2019.g4.mimir.security.JwtTokenProvider;
 import de.seprojekt.se2019.g4.mimir.security.user.User;
 import de.seprojekt.se2019.g4.mimir.security.user.UserService;
+import java.util.Date;
 import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,8 +64,8 @@ public class RegistrationController {
     String token = jwtTokenProvider.generateRegistrationToken(mail);
     String link = this.frontendRegistrationUrl + ";mail=" + mail + ";token=" + token;
 
-    boolean successful = mailService
-        .sendRegistrationMail(mail, link, jwtTokenProvider.getExpiration(token));
+    Date expiration = Date.from(jwtTokenProvider.parseToken(token).get().getExpiration());
+    boolean successful = mailService.sendRegistrationMail(mail, link, expiration);
 
     if (successful) {
       return ResponseEntity.ok().build();
@@ -82,15 +84,16 @@ public class RegistrationController {
       return ResponseEntity.badRequest().build();
     }
 
-    if (!jwtTokenProvider.validateToken(token)) {
+    Optional<JwtClaims> claims = jwtTokenProvider.parseToken(token);
+    if (claims.isEmpty()) {
       return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
     }
 
-    if (!jwtTokenProvider.getPayload(token, "type").equals(User.REGISTRATION_IDENTIFIER)) {
+    if (!User.REGISTRATION_IDENTIFIER.equals(claims.get().get("type"))) {
       return ResponseEntity.badRequest().build();
     }
 
-    String mail = jwtTokenProvider.getPayload(token, "sub");
+    String mail = claims.get().getSubject();
 
     if (StringUtils.isEmpty(mail)) {
       return ResponseEntity.badRequest().build();
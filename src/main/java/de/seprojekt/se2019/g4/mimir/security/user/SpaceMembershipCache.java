@@ -0,0 +1,146 @@
+package de.seprojekt.se2019.g4.mimir.security.user;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * This service keeps the ids of the spaces of the users in memory, so an authorization check is a
+ * lookup instead of loading the user and its spaces from the database. Every change of the spaces
+ * of a user has to call {@link #invalidate(String)}. The entries are removed at once and again
+ * after the transaction was completed; until then the transaction which changed the spaces reads
+ * them from the database, so other threads never see uncommitted memberships.
+ *
+ * <p>Within an HTTP request the ids are additionally memoized in a request attribute, so all
+ * checks of a request use the same memberships. The metric user.spaces.cache (tag 'result': hit
+ * or miss) shows how often the cached ids were used.
+ */
+@Service
+public class SpaceMembershipCache {
+
+  private static final String MEMO_ATTRIBUTE = SpaceMembershipCache.class.getName() + ".memo";
+
+  private UserRepository userRepository;
+  private Counter hits;
+  private Counter misses;
+  // guarded by this
+  private final Map<String, Set<Long>> spaceIds = new HashMap<>();
+  // guarded by this, incremented by every invalidation
+  private long generation;
+
+  /**
+   * The parameters will be autowired by Spring.
+   */
+  public SpaceMembershipCache(UserRepository userRepository, MeterRegistry meterRegistry) {
+    this.userRepository = userRepository;
+    this.hits = meterRegistry.counter("user.spaces.cache", "result", "hit");
+    this.misses = meterRegistry.counter("user.spaces.cache", "result", "miss");
+  }
+
+  /**
+   * Return the ids of the spaces of the user with the given name (empty, if there is no such
+   * user).
+   */
+  public Set<Long> getSpaceIds(String username) {
+    if (isChangedInTransaction()) {
+      return loadSpaceIds(username);
+    }
+    Map<String, Set<Long>> memo = getMemo(true);
+    Set<Long> ids = memo == null ? null : memo.get(username);
+    if (ids == null) {
+      ids = lookup(username);
+      if (memo != null) {
+        memo.put(username, ids);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Remove the ids of the spaces of the user with the given name, because they were changed.
+   */
+  public void invalidate(String username) {
+    evict(username);
+    Map<String, Set<Long>> memo = getMemo(false);
+    if (memo != null) {
+      memo.remove(username);
+    }
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return;
+    }
+    @SuppressWarnings("unchecked")
+    Set<String> changedUsernames = (Set<String>) TransactionSynchronizationManager
+        .getResource(this);
+    if (changedUsernames == null) {
+      Set<String> usernames = new HashSet<>();
+      TransactionSynchronizationManager.bindResource(this, usernames);
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          // other threads may have cached the old ids in the meantime
+          TransactionSynchronizationManager.unbindResourceIfPossible(SpaceMembershipCache.this);
+          usernames.forEach(SpaceMembershipCache.this::evict);
+        }
+      });
+      changedUsernames = usernames;
+    }
+    changedUsernames.add(username);
+  }
+
+  private Set<Long> lookup(String username) {
+    long loadGeneration;
+    synchronized (this) {
+      Set<Long> ids = spaceIds.get(username);
+      if (ids != null) {
+        hits.increment();
+        return ids;
+      }
+      loadGeneration = generation;
+    }
+    misses.increment();
+    Set<Long> ids = loadSpaceIds(username);
+    synchronized (this) {
+      // the loaded ids may be outdated, if an entry was invalidated meanwhile
+      if (generation == loadGeneration) {
+        spaceIds.put(username, ids);
+      }
+    }
+    return ids;
+  }
+
+  private Set<Long> loadSpaceIds(String username) {
+    return Set.copyOf(userRepository.findSpaceIdsByName(username));
+  }
+
+  private synchronized void evict(String username) {
+    spaceIds.remove(username);
+    generation++;
+  }
+
+  private boolean isChangedInTransaction() {
+    return TransactionSynchronizationManager.isSynchronizationActive()
+        && TransactionSynchronizationManager.hasResource(this);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Set<Long>> getMemo(boolean create) {
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if (attributes == null) {
+      return null;
+    }
+    Object memo = attributes.getAttribute(MEMO_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    if (memo == null && create) {
+      memo = new HashMap<String, Set<Long>>();
+      attributes.setAttribute(MEMO_ATTRIBUTE, memo, RequestAttributes.SCOPE_REQUEST);
+    }
+    return (Map<String, Set<Long>>) memo;
+  }
+}
@@ -4,6 +4,8 @@ import de.seprojekt.se2019.g4.mimir.content.space.Space;
 import java.util.List;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 public interface UserRepository extends JpaRepository<User, Long> {
 
@@ -14,4 +16,10 @@ public interface UserRepository extends JpaRepository<User, Long> {
   Integer countBySpacesContains(Space space);
 
   List<User> findAllBySpacesContains(Space space);
+
+  /**
+   * Return the ids of the spaces of the user with the given name (one query).
+   */
+  @Query("select s.id from User u join u.spaces s where u.name = :name")
+  List<Long> findSpaceIdsByName(@Param("name") String name);
 }
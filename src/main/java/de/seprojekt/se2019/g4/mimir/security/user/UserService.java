@@ -1,7 +1,6 @@
 package de.seprojekt.se2019.g4.mimir.security.user;
 
 import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
-import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
 import de.seprojekt.se2019.g4.mimir.content.folder.Folder;
 import de.seprojekt.se2019.g4.mimir.content.folder.FolderService;
 import de.seprojekt.se2019.g4.mimir.content.space.Space;
@@ -10,8 +9,12 @@ import de.seprojekt.se2019.g4.mimir.security.JwtPrincipal;
 import de.seprojekt.se2019.g4.mimir.security.LdapClient;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
@@ -27,24 +30,27 @@ public class UserService {
   private final static Logger LOGGER = LoggerFactory.getLogger(UserService.class);
   private UserRepository userRepository;
   private FolderService folderService;
-  private ArtifactService artifactService;
   private SpaceService spaceService;
   private LdapClient ldapClient;
+  private SpaceMembershipCache spaceMembershipCache;
 
   @Value("${app.validMailDomain}")
   private String validMailDomain;
 
+  @Value("${app.adminUsers}")
+  private Set<String> adminUsers;
+
   /**
    * The parameters will be autowired by Spring.
    */
   public UserService(UserRepository userRepository, @Lazy FolderService folderService,
-      @Lazy ArtifactService artifactService, @Lazy SpaceService spaceService,
-      LdapClient ldapClient) {
+      @Lazy SpaceService spaceService, LdapClient ldapClient,
+      SpaceMembershipCache spaceMembershipCache) {
     this.userRepository = userRepository;
     this.folderService = folderService;
-    this.artifactService = artifactService;
     this.spaceService = spaceService;
     this.ldapClient = ldapClient;
+    this.spaceMembershipCache = spaceMembershipCache;
   }
 
   @Transactional
@@ -101,10 +107,11 @@ public class UserService {
   }
 
   /**
-   * Update a user
+   * Update a user (every change of the spaces of a user must be saved with this method)
    */
   @Transactional
   public User update(User user) {
+    spaceMembershipCache.invalidate(user.getName());
     return userRepository.save(user);
   }
 
@@ -122,11 +129,19 @@ public class UserService {
   @Transactional
   public void removeAllFromSpace(Space space) {
     for (User user : this.userRepository.findAllBySpacesContains(space)) {
-      user.getSpaces().remove(space);
-      this.update(user);
+      this.removeUserFromSpace(user, space);
     }
   }
 
+  /**
+   * removes user from this space
+   */
+  @Transactional
+  public User removeUserFromSpace(User user, Space space) {
+    user.getSpaces().removeIf(userSpace -> userSpace.getId().equals(space.getId()));
+    return this.update(user);
+  }
+
   /**
    * Gets Users By Space.
    *
@@ -145,7 +160,7 @@ public class UserService {
   public User addUserToSpace(User user, Space space) {
     user = this.findByName(user.getName()).get();
     List<Space> spaceList = user.getSpaces();
-    if (!spaceList.contains(space)) {
+    if (spaceList.stream().noneMatch(userSpace -> userSpace.getId().equals(space.getId()))) {
       LOGGER.info("Adding user '{}' to space '{}'", user.getName(), space.getName());
       spaceList.add(space);
     }
@@ -153,23 +168,18 @@ public class UserService {
   }
 
   /**
-   * Check if user is authorized for space
+   * Check if user is authorized for space (the spaces of the user are cached)
    */
-  @Transactional
   public boolean isAuthorizedForSpace(Space space, Principal principal) {
     JwtPrincipal jwtPrincipal = JwtPrincipal.fromPrincipal(principal);
     if (jwtPrincipal.isAnonymous()) {
       LOGGER.warn("Anonymous user tried accessing the space '{}'", space.getName());
       return false; // spaces can't be shared
     }
-    Optional<User> optionalUser = this.findByName(principal.getName());
-    if (optionalUser.isEmpty()) {
-      return false;
-    }
-    if (optionalUser.get().getSpaces().contains(space)) {
+    if (spaceMembershipCache.getSpaceIds(principal.getName()).contains(space.getId())) {
       return true;
     } else {
-      LOGGER.warn("User '{}' tried accessing the space '{}'", optionalUser.get().getName(),
+      LOGGER.warn("User '{}' tried accessing the space '{}'", principal.getName(),
           space.getName());
       return false;
     }
@@ -189,16 +199,11 @@ public class UserService {
               folder.getName());
           return false;
         case Folder.TYPE_IDENTIFIER: {
-          Optional<Folder> sharedFolder = folderService.findById(jwtPrincipal.getSharedEntityId());
-          if (sharedFolder.isEmpty()) {
-            return false;
-          }
-          if (folderService.matchesOrIsChild(sharedFolder.get(), folder)) {
+          if (isInSharedFolder(jwtPrincipal, folder)) {
             return true;
           } else {
-            LOGGER.warn(
-                "Anonymous user tried accessing the folder '{}' with a share token for the folder '{}",
-                folder.getName(), sharedFolder.get().getName());
+            LOGGER.warn("Anonymous user tried accessing the folder '{}' with a share token "
+                + "for the folder {}", folder.getName(), jwtPrincipal.getSharedEntityId());
             return false;
           }
         }
@@ -210,6 +215,14 @@ public class UserService {
     }
   }
 
+  /**
+   * Check if user may run administrative tasks (property app.adminUsers)
+   */
+  public boolean isAdmin(Principal principal) {
+    JwtPrincipal jwtPrincipal = JwtPrincipal.fromPrincipal(principal);
+    return !jwtPrincipal.isAnonymous() && adminUsers.contains(jwtPrincipal.getName());
+  }
+
   /**
    * Check if user is authorized for artifact
    */
@@ -219,31 +232,21 @@ public class UserService {
     if (jwtPrincipal.isAnonymous()) {
       switch (jwtPrincipal.getSharedEntityType()) {
         case Artifact.TYPE_IDENTIFIER: {
-          Optional<Artifact> sharedArtifact = artifactService
-              .findById(jwtPrincipal.getSharedEntityId());
-          if (sharedArtifact.isEmpty()) {
-            return false;
-          }
-          if (sharedArtifact.get().getId() == artifact.getId()) {
+          // the given artifact exists, so the shared one doesn't have to be loaded
+          if (jwtPrincipal.getSharedEntityId().equals(artifact.getId())) {
             return true;
           } else {
-            LOGGER.warn(
-                "Anonymous user tried accessing the artifact '{}' with a share token for the artifact '{}",
-                artifact.getName(), sharedArtifact.get().getName());
+            LOGGER.warn("Anonymous user tried accessing the artifact '{}' with a share token "
+                + "for the artifact {}", artifact.getName(), jwtPrincipal.getSharedEntityId());
             return false;
           }
         }
         case Folder.TYPE_IDENTIFIER: {
-          Optional<Folder> sharedFolder = folderService.findById(jwtPrincipal.getSharedEntityId());
-          if (sharedFolder.isEmpty()) {
-            return false;
-          }
-          if (folderService.matchesOrIsChild(sharedFolder.get(), artifact.getParentFolder())) {
+          if (isInSharedFolder(jwtPrincipal, artifact.getParentFolder())) {
             return true;
           } else {
-            LOGGER.warn(
-                "Anonymous user tried accessing the artifact '{}' with a share token for the folder '{}",
-                artifact.getName(), sharedFolder.get().getName());
+            LOGGER.warn("Anonymous user tried accessing the artifact '{}' with a share token "
+                + "for the folder {}", artifact.getName(), jwtPrincipal.getSharedEntityId());
             return false;
           }
         }
@@ -255,6 +258,49 @@ public class UserService {
     }
   }
 
+  /**
+   * Check if the given folder is the folder shared with the share token or one of its sub folders.
+   * The path of a folder starts with the path of each of its ancestors, so the shared folder only
+   * has to be loaded for share tokens without path or if it was moved since the token was
+   * generated.
+   */
+  private boolean isInSharedFolder(JwtPrincipal jwtPrincipal, Folder folder) {
+    String sharedFolderPath = jwtPrincipal.getSharedFolderPath();
+    if (sharedFolderPath != null && folder.getPath() != null
+        && folder.getPath().startsWith(sharedFolderPath)) {
+      return true;
+    }
+    Optional<Folder> sharedFolder = folderService.findById(jwtPrincipal.getSharedEntityId());
+    return sharedFolder.isPresent() && folderService.matchesOrIsChild(sharedFolder.get(), folder);
+  }
+
+  /**
+   * Return the artifacts of the given ones, which the user is authorized for. The authorization is
+   * checked once per space (or once per folder or artifact for share tokens), not per artifact.
+   */
+  @Transactional
+  public List<Artifact> filterAuthorizedArtifacts(Collection<Artifact> artifacts,
+      Principal principal) {
+    JwtPrincipal jwtPrincipal = JwtPrincipal.fromPrincipal(principal);
+    Map<String, Boolean> authorizations = new HashMap<>();
+    List<Artifact> authorizedArtifacts = new ArrayList<>();
+    for (Artifact artifact : artifacts) {
+      // the key identifies all artifacts which get the same result
+      String key;
+      if (!jwtPrincipal.isAnonymous()) {
+        key = "S" + artifact.getSpace().getId();
+      } else if (Folder.TYPE_IDENTIFIER.equals(jwtPrincipal.getSharedEntityType())) {
+        key = Folder.TYPE_IDENTIFIER + artifact.getParentFolder().getId();
+      } else {
+        key = Artifact.TYPE_IDENTIFIER + artifact.getId();
+      }
+      if (authorizations.computeIfAbsent(key, k -> isAuthorizedForArtifact(artifact, principal))) {
+        authorizedArtifacts.add(artifact);
+      }
+    }
+    return authorizedArtifacts;
+  }
+
   /**
    * https://stackoverflow.com/questions/624581/
    */
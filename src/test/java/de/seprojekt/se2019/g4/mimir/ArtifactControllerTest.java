@@ -0,0 +1,161 @@
+package de.seprojekt.se2019.g4.mimir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
+import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactController;
+import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
+import de.seprojekt.se2019.g4.mimir.content.space.Space;
+import de.seprojekt.se2019.g4.mimir.security.JwtPrincipal;
+import de.seprojekt.se2019.g4.mimir.security.user.User;
+import de.seprojekt.se2019.g4.mimir.security.user.UserService;
+import java.io.IOException;
+import javax.transaction.Transactional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class ArtifactControllerTest {
+
+  @Autowired
+  ArtifactController artifactController;
+
+  @Autowired
+  ArtifactService artifactService;
+
+  @Autowired
+  UserService userService;
+
+  private UsernamePasswordAuthenticationToken auth;
+  private Artifact artifact;
+
+  @Before
+  public void init() throws IOException {
+    User user = userService.findByName("thellmann").get();
+    Space space = user.getSpaces().get(0);
+    auth = new UsernamePasswordAuthenticationToken(new JwtPrincipal("thellmann"), "");
+    artifact = artifactService.create(
+        "file1.txt",
+        user.getName(),
+        new MockMultipartFile("file1.txt", "file1.txt", "text/plain", "0123456789".getBytes()),
+        space.getRootFolder()
+    );
+  }
+
+  @Test
+  public void shouldReturnWholeContent() throws IOException {
+    MockHttpServletResponse response = getRawData(new MockHttpServletRequest());
+    assertEquals("should be ok", 200, response.getStatus());
+    assertEquals("should contain everything", "0123456789", response.getContentAsString());
+    assertEquals("should accept ranges", "bytes", response.getHeader("Accept-Ranges"));
+  }
+
+  @Test
+  public void shouldReturnSingleRange() throws IOException {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader("Range", "bytes=2-4");
+    MockHttpServletResponse response = getRawData(request);
+    assertEquals("should be partial", 206, response.getStatus());
+    assertEquals("should contain range", "234", response.getContentAsString());
+    assertEquals("should have content range", "bytes 2-4/10",
+        response.getHeader("Content-Range"));
+  }
+
+  @Test
+  public void shouldReturnMultipleRanges() throws IOException {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader("Range", "bytes=0-1,-2");
+    MockHttpServletResponse response = getRawData(request);
+    assertEquals("should be partial", 206, response.getStatus());
+    assertTrue("should be multipart",
+        response.getContentType().startsWith("multipart/byteranges"));
+    assertTrue("should contain first range",
+        response.getContentAsString().contains("bytes 0-1/10\r\n\r\n01"));
+    assertTrue("should contain second range",
+        response.getContentAsString().contains("bytes 8-9/10\r\n\r\n89"));
+    assertEquals("should have correct length", response.getContentAsByteArray().length,
+        response.getContentLength());
+  }
+
+  @Test
+  public void shouldIgnoreRangeForChangedContent() throws IOException {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader("Range", "bytes=2-4");
+    request.addHeader("If-Range", "\"outdated\"");
+    MockHttpServletResponse response = getRawData(request);
+    assertEquals("should be ok", 200, response.getStatus());
+    assertEquals("should contain everything", "0123456789", response.getContentAsString());
+  }
+
+  @Test
+  public void shouldRejectUnsatisfiableRange() throws IOException {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader("Range", "bytes=20-30");
+    MockHttpServletResponse response = getRawData(request);
+    assertEquals("should not be satisfiable", 416, response.getStatus());
+    assertEquals("should have content range", "bytes */10", response.getHeader("Content-Range"));
+  }
+
+  @Test
+  public void shouldReturnWholeContentForTooManyRanges() throws IOException {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    StringBuilder range = new StringBuilder("bytes=0-0");
+    for (int i = 0; i < 50; i++) {
+      range.append(",20-30");
+    }
+    request.addHeader("Range", range.toString());
+    MockHttpServletResponse response = getRawData(request);
+    assertEquals("should be ok", 200, response.getStatus());
+    assertEquals("should contain everything", "0123456789", response.getContentAsString());
+  }
+
+  @Test
+  public void shouldReturnHeadersOnlyForHeadRequest() throws IOException {
+    MockHttpServletRequest request = new MockHttpServletRequest("HEAD", "");
+    request.addHeader("Range", "bytes=0-1,-2");
+    MockHttpServletResponse response = getRawData(request);
+    assertEquals("should be partial", 206, response.getStatus());
+    assertTrue("should have length of both ranges", response.getContentLength() > 4);
+    assertEquals("should not write body", 0, response.getContentAsByteArray().length);
+  }
+
+  @Test
+  public void shouldUseSendfileIfSupported() throws IOException {
+    Artifact video = artifactService.create(
+        "video.mp4",
+        "thellmann",
+        new MockMultipartFile("video.mp4", "video.mp4", "video/mp4", new byte[100 * 1024]),
+        artifact.getParentFolder()
+    );
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "");
+    request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+    request.addHeader("Range", "bytes=1024-");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    artifactController.getRawData(video.getId(), auth, request, response);
+    assertEquals("should be partial", 206, response.getStatus());
+    assertEquals("should have length of range", 99 * 1024, response.getContentLength());
+    assertNotNull("should send file",
+        request.getAttribute("org.apache.tomcat.sendfile.filename"));
+    assertEquals("should start at range", 1024L,
+        request.getAttribute("org.apache.tomcat.sendfile.start"));
+    assertEquals("should not write body", 0, response.getContentAsByteArray().length);
+  }
+
+  private MockHttpServletResponse getRawData(MockHttpServletRequest request) throws IOException {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    artifactController.getRawData(artifact.getId(), auth, request, response);
+    return response;
+  }
+}
@@ -1,15 +1,28 @@
 package de.seprojekt.se2019.g4.mimir;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
 import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
+import de.seprojekt.se2019.g4.mimir.content.blob.BlobService;
+import de.seprojekt.se2019.g4.mimir.content.blob.BlobStore;
+import de.seprojekt.se2019.g4.mimir.content.blob.StoredBlobRepository;
 import de.seprojekt.se2019.g4.mimir.content.space.Space;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.Thumbnail;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailJob;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailJobRepository;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailService;
 import de.seprojekt.se2019.g4.mimir.security.user.User;
 import de.seprojekt.se2019.g4.mimir.security.user.UserService;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import javax.imageio.ImageIO;
 import javax.transaction.Transactional;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,6 +45,21 @@ public class ArtifactServiceTest {
   @Autowired
   ArtifactService artifactService;
 
+  @Autowired
+  BlobService blobService;
+
+  @Autowired
+  BlobStore blobStore;
+
+  @Autowired
+  StoredBlobRepository storedBlobRepository;
+
+  @Autowired
+  ThumbnailService thumbnailService;
+
+  @Autowired
+  ThumbnailJobRepository thumbnailJobRepository;
+
   private User user;
   private Space space;
 
@@ -59,6 +87,22 @@ public class ArtifactServiceTest {
         artifact.getContentType());
   }
 
+  @Test
+  public void shouldStoreArtifactContent() throws IOException {
+    String name = "file1.txt";
+    Artifact artifact = artifactService.create(
+        name,
+        user.getName(),
+        new MockMultipartFile(name, name, "text/plain", "foobar".getBytes()),
+        space.getRootFolder()
+    );
+    assertNotNull("should have content hash", artifact.getContentHash());
+    assertEquals("should have content length", Long.valueOf(6), artifact.getContentLength());
+    try (InputStream content = artifactService.findArtifactContent(artifact)) {
+      assertArrayEquals("should have content", "foobar".getBytes(), content.readAllBytes());
+    }
+  }
+
   @Test
   public void shouldDeleteArtifact() throws IOException {
     String name = "file1.txt";
@@ -72,4 +116,79 @@ public class ArtifactServiceTest {
     assertTrue("should not exist", artifactService.findById(artifact.getId()).isEmpty());
   }
 
+  @Test
+  public void shouldShareIdenticalContent() throws IOException {
+    ByteArrayOutputStream image = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "png", image);
+    MockMultipartFile file = new MockMultipartFile("image.png", "image.png", "image/png",
+        image.toByteArray());
+    Artifact first = artifactService.create("image1.png", user.getName(), file,
+        space.getRootFolder());
+    Artifact second = artifactService.create("image2.png", user.getName(), file,
+        space.getRootFolder());
+    String hash = first.getContentHash();
+    assertEquals("should have same content hash", hash, second.getContentHash());
+    assertEquals("should count references", Long.valueOf(2),
+        storedBlobRepository.findById(hash).get().getReferenceCount());
+    assertTrue("should generate thumbnail in background",
+        artifactService.isThumbnailPending(first));
+    thumbnailService.generate(hash);
+    assertFalse("should have generated thumbnail", artifactService.isThumbnailPending(first));
+    Thumbnail thumbnail = artifactService.findThumbnail(first).get();
+    assertEquals("should share thumbnail", thumbnail.getId(),
+        artifactService.findThumbnail(second).get().getId());
+    try (InputStream content = artifactService.findThumbnailContent(thumbnail)) {
+      assertEquals("should store thumbnail in blob store", thumbnail.getContentLength(),
+          Long.valueOf(content.readAllBytes().length));
+    }
+
+    artifactService.delete(first);
+    blobService.deleteUnreferencedBlobs();
+    assertTrue("should keep content", blobStore.exists(hash));
+    assertTrue("should keep thumbnail", artifactService.findThumbnail(second).isPresent());
+
+    artifactService.delete(second);
+    blobService.deleteUnreferencedBlobs();
+    assertFalse("should delete content", blobStore.exists(hash));
+    assertTrue("should delete thumbnail", artifactService.findThumbnail(second).isEmpty());
+    assertFalse("should delete thumbnail content", blobStore.exists(thumbnail.getBlobHash()));
+  }
+
+  @Test
+  public void shouldReplaceThumbnail() throws IOException {
+    ByteArrayOutputStream image = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "png", image);
+    Artifact artifact = artifactService.create("image.png", user.getName(),
+        new MockMultipartFile("image.png", "image.png", "image/png", image.toByteArray()),
+        space.getRootFolder());
+    String hash = artifact.getContentHash();
+    thumbnailService.generate(hash);
+    Thumbnail thumbnail = artifactService.findThumbnail(artifact).get();
+
+    assertFalse("should skip content with thumbnail",
+        thumbnailService.needsThumbnail(hash, MediaType.IMAGE_PNG, false));
+    assertTrue("should replace thumbnail on request",
+        thumbnailService.needsThumbnail(hash, MediaType.IMAGE_PNG, true));
+    assertTrue("should generate new thumbnail",
+        thumbnailService.generateWithoutJob(hash, MediaType.IMAGE_PNG));
+    assertFalse("should not create job", artifactService.isThumbnailPending(artifact));
+    assertFalse("should replace thumbnail",
+        thumbnail.getId().equals(artifactService.findThumbnail(artifact).get().getId()));
+  }
+
+  @Test
+  public void shouldGiveUpJobAfterMaxAttempts() throws IOException {
+    ByteArrayOutputStream image = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "png", image);
+    Artifact artifact = artifactService.create("image.png", user.getName(),
+        new MockMultipartFile("image.png", "image.png", "image/png", image.toByteArray()),
+        space.getRootFolder());
+    ThumbnailJob thumbnailJob = thumbnailJobRepository.findById(artifact.getContentHash()).get();
+    thumbnailJob.setAttempts(3);
+    thumbnailJobRepository.save(thumbnailJob);
+
+    assertFalse("should not execute job", thumbnailService.generate(artifact.getContentHash()));
+    assertFalse("should delete job", artifactService.isThumbnailPending(artifact));
+    assertTrue("should not generate thumbnail", artifactService.findThumbnail(artifact).isEmpty());
+  }
 }
@@ -0,0 +1,63 @@
+package de.seprojekt.se2019.g4.mimir;
+
+import static org.junit.Assert.assertEquals;
+
+import de.seprojekt.se2019.g4.mimir.content.blob.BlobService;
+import de.seprojekt.se2019.g4.mimir.content.blob.StoredBlob;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * The uploads run in other threads, so this test can't use a transaction (it releases the content
+ * it stored).
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class BlobServiceTest {
+
+  @Autowired
+  BlobService blobService;
+
+  @Test
+  public void shouldCountConcurrentUploadsOfNewContent() throws Exception {
+    byte[] content = new byte[4096];
+    new Random().nextBytes(content);
+    int uploads = 4;
+    ExecutorService executorService = Executors.newFixedThreadPool(uploads);
+    CyclicBarrier barrier = new CyclicBarrier(uploads);
+    List<Future<StoredBlob>> results = new ArrayList<>();
+    try {
+      for (int i = 0; i < uploads; i++) {
+        results.add(executorService.submit(() -> {
+          barrier.await();
+          return blobService.store(new ByteArrayInputStream(content));
+        }));
+      }
+      for (Future<StoredBlob> result : results) {
+        result.get();
+      }
+    } finally {
+      executorService.shutdown();
+    }
+
+    String hash = results.get(0).get().getHash();
+    assertEquals("should count every upload", Long.valueOf(uploads),
+        blobService.findByHashes(List.of(hash)).get(hash).getReferenceCount());
+
+    for (int i = 0; i < uploads; i++) {
+      blobService.release(hash);
+    }
+    blobService.deleteUnreferencedBlobs();
+  }
+}
@@ -1,18 +1,35 @@
 package de.seprojekt.se2019.g4.mimir;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 
 import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
 import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
 import de.seprojekt.se2019.g4.mimir.content.folder.Folder;
+import de.seprojekt.se2019.g4.mimir.content.folder.FolderController;
+import de.seprojekt.se2019.g4.mimir.content.folder.FolderDTO;
 import de.seprojekt.se2019.g4.mimir.content.folder.FolderService;
 import de.seprojekt.se2019.g4.mimir.content.space.Space;
+import de.seprojekt.se2019.g4.mimir.security.JwtPrincipal;
 import de.seprojekt.se2019.g4.mimir.security.user.User;
 import de.seprojekt.se2019.g4.mimir.security.user.UserService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 import javax.transaction.Transactional;
 import org.junit.Before;
@@ -21,6 +38,7 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.test.context.junit4.SpringRunner;
 
 @RunWith(SpringRunner.class)
@@ -34,9 +52,15 @@ public class FolderServiceTest {
   @Autowired
   FolderService folderService;
 
+  @Autowired
+  FolderController folderController;
+
   @Autowired
   ArtifactService artifactService;
 
+  @Autowired
+  MeterRegistry meterRegistry;
+
   private User user;
   private Space space;
 
@@ -75,6 +99,99 @@ public class FolderServiceTest {
     assertTrue("artifact should not exist", artifactService.findById(artifact.getId()).isEmpty());
   }
 
+  @Test
+  public void shouldReturnFolderTree() throws IOException {
+    Folder folder = folderService.create(space.getRootFolder(), "MyTestFolder");
+    Folder subFolder = folderService.create(folder, "MySubFolder");
+    artifactService.create(
+        "file1.txt",
+        user.getName(),
+        new MockMultipartFile("file1.txt", "file1.txt", "text/plain", "foobar".getBytes()),
+        subFolder
+    );
+    FolderDTO tree = folderService.getFolderDTOWithTree(space.getRootFolder());
+    FolderDTO folderDTO = tree.getFolders().stream()
+        .filter(f -> f.getId().equals(folder.getId())).findFirst().get();
+    assertEquals("should contain sub folder", 1, folderDTO.getFolders().size());
+    FolderDTO subFolderDTO = folderDTO.getFolders().get(0);
+    assertEquals("should have sub folder name", "MySubFolder", subFolderDTO.getName());
+    assertTrue("sub folder should have no folders", subFolderDTO.getFolders().isEmpty());
+    assertEquals("sub folder should contain artifact", "file1.txt",
+        subFolderDTO.getArtifacts().get(0).getName());
+
+    FolderDTO subTree = folderService.getFolderDTOWithTree(subFolder);
+    assertEquals("should only contain sub tree", 1, subTree.getArtifacts().size());
+  }
+
+  @Test
+  public void shouldMoveFolder() {
+    Folder folder = folderService.create(space.getRootFolder(), "MyTestFolder");
+    Folder subFolder = folderService.create(folder, "MySubFolder");
+    Folder otherFolder = folderService.create(space.getRootFolder(), "MyOtherFolder");
+    assertTrue("should be child", folderService.matchesOrIsChild(folder, subFolder));
+
+    Folder movedFolder = folderService.move(folder, otherFolder);
+    Folder movedSubFolder = folderService.findById(subFolder.getId()).get();
+    assertTrue("should be moved", folderService.matchesOrIsChild(otherFolder, movedSubFolder));
+    assertTrue("should still be child", folderService.matchesOrIsChild(movedFolder, movedSubFolder));
+    assertFalse("should not be child of sibling",
+        folderService.matchesOrIsChild(otherFolder, space.getRootFolder()));
+    assertEquals("should have root folder", space.getRootFolder().getId(),
+        folderService.getRootFolder(movedSubFolder).getId());
+  }
+
+  @Test
+  public void shouldNotRenameFolderIfMoveIsRejected() {
+    Folder folder = folderService.create(space.getRootFolder(), "MyTestFolder");
+    Folder subFolder = folderService.create(folder, "MySubFolder");
+    Folder otherFolder = folderService.create(space.getRootFolder(), "MyOtherFolder");
+    folderService.create(otherFolder, "MyRenamedFolder");
+    UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
+        new JwtPrincipal("thellmann"), "");
+
+    assertEquals("should reject move into itself", 409, folderController
+        .renameFolder(folder.getId(), "MyRenamedFolder", subFolder.getId(), auth)
+        .getStatusCodeValue());
+    assertEquals("should reject name of folder in new parent folder", 409, folderController
+        .renameFolder(folder.getId(), "MyRenamedFolder", otherFolder.getId(), auth)
+        .getStatusCodeValue());
+    assertEquals("should not be renamed", "MyTestFolder",
+        folderService.findById(folder.getId()).get().getName());
+
+    assertEquals("should rename and move", 200, folderController
+        .renameFolder(folder.getId(), "MyMovedFolder", otherFolder.getId(), auth)
+        .getStatusCodeValue());
+    Folder movedFolder = folderService.findById(folder.getId()).get();
+    assertEquals("should be renamed", "MyMovedFolder", movedFolder.getName());
+    assertEquals("should be moved", otherFolder.getId(), movedFolder.getParentFolder().getId());
+  }
+
+  @Test
+  public void shouldAuthorizeFolderShareTokens() {
+    Folder folder = folderService.create(space.getRootFolder(), "MySharedFolder");
+    Folder subFolder = folderService.create(folder, "MySubFolder");
+    Folder otherFolder = folderService.create(space.getRootFolder(), "MyOtherFolder");
+    UsernamePasswordAuthenticationToken shareToken = new UsernamePasswordAuthenticationToken(
+        new JwtPrincipal(JwtPrincipal.shareLinkUserName, folder.getId(), Folder.TYPE_IDENTIFIER,
+            folder.getPath()), "");
+    UsernamePasswordAuthenticationToken legacyShareToken = new UsernamePasswordAuthenticationToken(
+        new JwtPrincipal(JwtPrincipal.shareLinkUserName, folder.getId(), Folder.TYPE_IDENTIFIER),
+        "");
+    assertTrue("should authorize sub folder", userService.isAuthorizedForFolder(subFolder,
+        shareToken));
+    assertFalse("should not authorize sibling", userService.isAuthorizedForFolder(otherFolder,
+        shareToken));
+    assertTrue("should authorize sub folder without path in token",
+        userService.isAuthorizedForFolder(subFolder, legacyShareToken));
+
+    folderService.move(folder, otherFolder);
+    Folder movedSubFolder = folderService.findById(subFolder.getId()).get();
+    assertTrue("should authorize sub folder after moving the shared folder",
+        userService.isAuthorizedForFolder(movedSubFolder, shareToken));
+    assertFalse("should not authorize parent after moving the shared folder",
+        userService.isAuthorizedForFolder(otherFolder, shareToken));
+  }
+
   @Test
   public void shouldDownloadFolderAsZip() throws Exception {
     artifactService.create(
@@ -83,8 +200,9 @@ public class FolderServiceTest {
         new MockMultipartFile("file1.txt", "file1.txt", "text/plain", "foobar".getBytes()),
         space.getRootFolder()
     );
-    var zip = folderService.zip(space.getRootFolder());
-    var in = new ZipInputStream(zip);
+    var zip = new ByteArrayOutputStream();
+    folderService.zip(space.getRootFolder(), zip);
+    var in = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()));
     var folder1 = in.getNextEntry();
     var file1 = in.getNextEntry();
     assertTrue("zip sollte folder1 enthalten", folder1.isDirectory());
@@ -93,4 +211,94 @@ public class FolderServiceTest {
     assertNotEquals("file1 sollte nicht leer sein", 0, file1.getSize());
   }
 
+  @Test
+  public void shouldCacheZipUntilFolderChanges() throws Exception {
+    Folder folder = folderService.create(space.getRootFolder(), "cached");
+    Folder subFolder = folderService.create(folder, "sub");
+    artifactService.create("a.txt", user.getName(),
+        new MockMultipartFile("a.txt", "a.txt", "text/plain", "a".getBytes()), folder);
+    Counter hits = meterRegistry.counter("zip.cache", "result", "hit");
+
+    byte[] zip = zip(folder);
+    double previousHits = hits.count();
+    assertArrayEquals("should return cached zip", zip, zip(folder));
+    assertEquals("should count hit", previousHits + 1, hits.count(), 0);
+
+    long version = folder.getSubtreeVersion();
+    artifactService.create("b.txt", user.getName(),
+        new MockMultipartFile("b.txt", "b.txt", "text/plain", "b".getBytes()), subFolder);
+    assertTrue("should increase version", folder.getSubtreeVersion() > version);
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip(folder)))) {
+      List<String> names = new ArrayList<>();
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        names.add(entry.getName());
+      }
+      assertEquals("should contain new artifact",
+          List.of("cached/", "cached/a.txt", "cached/sub/", "cached/sub/b.txt"), names);
+    }
+  }
+
+  @Test
+  public void shouldUseDateOfNewestArtifactForDirectories() throws Exception {
+    Folder folder = folderService.create(space.getRootFolder(), "dated");
+    folderService.create(folder, "sub");
+    artifactService.create("a.txt", user.getName(),
+        new MockMultipartFile("a.txt", "a.txt", "text/plain", "a".getBytes()), folder);
+    Thread.sleep(2000);
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip(folder)))) {
+      List<Long> times = new ArrayList<>();
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        times.add(entry.getTime());
+      }
+      assertEquals("should contain folders and artifact", 3, times.size());
+      assertEquals("should use date of artifact for folder", times.get(1), times.get(0));
+      assertEquals("should use date of artifact for sub folder", times.get(1), times.get(2));
+    }
+  }
+
+  private byte[] zip(Folder folder) throws IOException {
+    var zip = new ByteArrayOutputStream();
+    folderService.zip(folder, zip);
+    return zip.toByteArray();
+  }
+
+  @Test
+  public void shouldCompressOnlyUncompressedMediaInZip() throws Exception {
+    Folder folder = folderService.create(space.getRootFolder(), "media");
+    byte[] text = "foobar ".repeat(1000).getBytes();
+    byte[] archive = new byte[4096];
+    new Random(42).nextBytes(archive);
+    artifactService.create("text.txt", user.getName(),
+        new MockMultipartFile("text.txt", "text.txt", "text/plain", text), folder);
+    artifactService.create("archive.zip", user.getName(),
+        new MockMultipartFile("archive.zip", "archive.zip", "application/zip", archive), folder);
+
+    Path zip = Files.createTempFile("folder", ".zip");
+    try {
+      try (OutputStream out = Files.newOutputStream(zip)) {
+        folderService.zip(folder, out);
+      }
+      try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+        ZipEntry textEntry = zipFile.getEntry("media/text.txt");
+        ZipEntry archiveEntry = zipFile.getEntry("media/archive.zip");
+        assertEquals("should compress text", ZipEntry.DEFLATED, textEntry.getMethod());
+        assertTrue("should be smaller", textEntry.getCompressedSize() < text.length);
+        assertEquals("should store archive", ZipEntry.STORED, archiveEntry.getMethod());
+        assertArrayEquals("should contain text", text,
+            zipFile.getInputStream(textEntry).readAllBytes());
+        assertArrayEquals("should contain archive", archive,
+            zipFile.getInputStream(archiveEntry).readAllBytes());
+      }
+      try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+        assertEquals("should start with folder", "media/", in.getNextEntry().getName());
+        assertEquals("should keep order", "media/text.txt", in.getNextEntry().getName());
+        assertArrayEquals("should contain text", text, in.readAllBytes());
+        assertEquals("should keep order", "media/archive.zip", in.getNextEntry().getName());
+        assertArrayEquals("should contain archive", archive, in.readAllBytes());
+      }
+    } finally {
+      Files.delete(zip);
+    }
+  }
+
 }
\ No newline at end of file
@@ -55,7 +55,7 @@ public class RegistrationControllerTest {
     String tokenNewUser = tokenProvider.generateRegistrationToken(mail);
     String tokenExistingUser = tokenProvider.generateRegistrationToken("t.hellmann@ostfalia.de");
     String shareToken = extractTokenFromBody(
-        tokenProvider.generateShareToken(-1L, Artifact.TYPE_IDENTIFIER, 50000L));
+        tokenProvider.generateShareToken(-1L, Artifact.TYPE_IDENTIFIER, null, 50000L));
     assertEquals("should check if token is empty", 400,
         registrationController.registrationConfirmation("", "pw").getStatusCodeValue());
     assertEquals("should check if password is empty", 400,
@@ -73,6 +73,21 @@ public class RegistrationControllerTest {
     assertEquals("user should have correct mail", mail, userOptional.get().getMail());
   }
 
+  @Test
+  public void shouldRejectTamperedTokenAfterValidOne() {
+    String token = tokenProvider.generateRegistrationToken("test123@" + validMailDomain);
+    String signature = token.substring(token.lastIndexOf('.') + 1);
+    String tamperedToken = token.substring(0, token.lastIndexOf('.') + 1)
+        + (signature.charAt(0) == 'A' ? 'B' : 'A') + signature.substring(1);
+
+    assertTrue("should accept the valid token", tokenProvider.parseToken(token).isPresent());
+    assertTrue("should return the cached claims for the valid token",
+        tokenProvider.parseToken(token).get() == tokenProvider.parseToken(token).get());
+    assertEquals("should reject the tampered token", 403,
+        registrationController.registrationConfirmation(tamperedToken, "pw")
+            .getStatusCodeValue());
+  }
+
   private String extractTokenFromBody(String body) {
     String token = body.split(":")[1];
     token = token.replace("\"", "");
@@ -17,6 +17,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.test.context.junit4.SpringRunner;
 
 @RunWith(SpringRunner.class)
@@ -63,5 +64,22 @@ public class SpaceServiceTest {
     assertFalse("user should not be member of space", user.getSpaces().contains(newSpace));
   }
 
+  @Test
+  public void shouldUpdateAuthorizationWhenMembershipChanges() {
+    UsernamePasswordAuthenticationToken principal = new UsernamePasswordAuthenticationToken(
+        new JwtPrincipal("thellmann"), "");
+    Space newSpace = spaceService.create("MyTestSpace", new JwtPrincipal("jobark"));
+    assertFalse("user should not be authorized before being added",
+        userService.isAuthorizedForSpace(newSpace, principal));
+
+    User user = userService.findByName("thellmann").get();
+    userService.addUserToSpace(user, newSpace);
+    assertTrue("user should be authorized after being added",
+        userService.isAuthorizedForSpace(newSpace, principal));
+
+    userService.removeUserFromSpace(userService.findByName("thellmann").get(), newSpace);
+    assertFalse("user should not be authorized after being removed",
+        userService.isAuthorizedForSpace(newSpace, principal));
+  }
 
 }
\ No newline at end of file
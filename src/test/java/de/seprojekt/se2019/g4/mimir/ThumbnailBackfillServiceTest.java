@@ -0,0 +1,42 @@
+package de.seprojekt.se2019.g4.mimir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailBackfillDTO;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailBackfillService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * The backfill runs in other threads, so this test can't use a transaction (it only processes the
+ * example data).
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class ThumbnailBackfillServiceTest {
+
+  @Autowired
+  ThumbnailBackfillService thumbnailBackfillService;
+
+  @Autowired
+  ArtifactService artifactService;
+
+  @Test
+  public void shouldProcessAllArtifacts() throws InterruptedException {
+    ThumbnailBackfillDTO progress = thumbnailBackfillService.start(false);
+    for (int i = 0; i < 600 && progress.isRunning(); i++) {
+      Thread.sleep(100);
+      progress = thumbnailBackfillService.findProgress().get();
+    }
+    assertFalse("should finish backfill", progress.isRunning());
+    assertNotNull("should store finish date", progress.getFinishDate());
+    assertEquals("should process all artifacts", artifactService.countAfter(0),
+        progress.getProcessedArtifacts());
+  }
+}
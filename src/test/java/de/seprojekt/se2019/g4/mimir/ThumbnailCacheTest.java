@@ -0,0 +1,29 @@
+package de.seprojekt.se2019.g4.mimir;
+
+import static org.junit.Assert.assertTrue;
+
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailCache;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailCache.Image;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailRendition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+public class ThumbnailCacheTest {
+
+  private ThumbnailCache thumbnailCache = new ThumbnailCache(1024, new SimpleMeterRegistry());
+
+  @Test
+  public void shouldNotCacheImageLoadedBeforeInvalidation() {
+    long generation = thumbnailCache.getGeneration();
+    thumbnailCache.invalidate("hash");
+    thumbnailCache.put("hash", ThumbnailRendition.DEFAULT, new Image(new byte[1], "\"old\""),
+        generation);
+    assertTrue("should not cache outdated image",
+        thumbnailCache.get("hash", ThumbnailRendition.DEFAULT).isEmpty());
+
+    thumbnailCache.put("hash", ThumbnailRendition.DEFAULT, new Image(new byte[1], "\"new\""),
+        thumbnailCache.getGeneration());
+    assertTrue("should cache current image",
+        thumbnailCache.get("hash", ThumbnailRendition.DEFAULT).isPresent());
+  }
+}
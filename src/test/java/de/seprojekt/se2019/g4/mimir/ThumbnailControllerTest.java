@@ -0,0 +1,161 @@
+package de.seprojekt.se2019.g4.mimir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
+import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
+import de.seprojekt.se2019.g4.mimir.content.space.Space;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.IconDiscoverService;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.IconDiscoverService.Icon;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailController;
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailService;
+import de.seprojekt.se2019.g4.mimir.security.JwtPrincipal;
+import de.seprojekt.se2019.g4.mimir.security.user.User;
+import de.seprojekt.se2019.g4.mimir.security.user.UserService;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import javax.imageio.ImageIO;
+import javax.transaction.Transactional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class ThumbnailControllerTest {
+
+  @Autowired
+  ThumbnailController thumbnailController;
+
+  @Autowired
+  IconDiscoverService iconDiscoverService;
+
+  @Autowired
+  ArtifactService artifactService;
+
+  @Autowired
+  UserService userService;
+
+  @Autowired
+  ThumbnailService thumbnailService;
+
+  private UsernamePasswordAuthenticationToken auth;
+  private User user;
+  private Space space;
+
+  @Before
+  public void init() {
+    user = userService.findByName("thellmann").get();
+    space = user.getSpaces().get(0);
+    auth = new UsernamePasswordAuthenticationToken(new JwtPrincipal("thellmann"), "");
+  }
+
+  @Test
+  public void shouldResolveIconAliases() {
+    Icon icon = iconDiscoverService.findIconFor(MediaType.valueOf("application/javascript")).get();
+    assertSame("should resolve alias", icon,
+        iconDiscoverService.findIconFor(MediaType.valueOf("application/x-javascript")).get());
+    assertEquals("should contain svg", '<', icon.getContent()[0]);
+    assertSame("should ignore parameters",
+        iconDiscoverService.findIconFor(MediaType.valueOf("text/plain")).get(),
+        iconDiscoverService.findIconFor(MediaType.valueOf("text/plain;charset=UTF-8")).get());
+    assertSame("should fall back to unknown icon",
+        iconDiscoverService.findIconFor(MediaType.valueOf("foo/bar")).get(),
+        iconDiscoverService.findIconFor(null).get());
+  }
+
+  @Test
+  public void shouldReturnCompressedIcon() throws IOException {
+    Artifact artifact = artifactService.create("icon.txt", user.getName(),
+        new MockMultipartFile("icon.txt", "icon.txt", "text/plain", "foobar".getBytes()),
+        space.getRootFolder());
+    Icon icon = iconDiscoverService.findIconFor(MediaType.TEXT_PLAIN).get();
+
+    ResponseEntity plain = thumbnailController.getThumbnail(artifact.getId(), null, null, auth);
+    assertEquals("should have etag", icon.getETag(), plain.getHeaders().getETag());
+    assertArrayEquals("should return icon", icon.getContent(), (byte[]) plain.getBody());
+
+    ResponseEntity gzip = thumbnailController
+        .getThumbnail(artifact.getId(), null, "deflate, gzip;q=0.8", auth);
+    assertEquals("should be compressed", "gzip",
+        gzip.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertNotEquals("should have other etag", icon.getETag(), gzip.getHeaders().getETag());
+    try (GZIPInputStream content = new GZIPInputStream(
+        new ByteArrayInputStream((byte[]) gzip.getBody()))) {
+      assertArrayEquals("should return icon", icon.getContent(), content.readAllBytes());
+    }
+
+    ResponseEntity refused = thumbnailController
+        .getThumbnail(artifact.getId(), null, "gzip;q=0", auth);
+    assertEquals("should not be compressed", null,
+        refused.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+  }
+
+  @Test
+  public void shouldGenerateRenditionOnDemand() throws IOException {
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB), "png", png);
+    Artifact artifact = artifactService.create("image.png", user.getName(),
+        new MockMultipartFile("image.png", "image.png", "image/png", png.toByteArray()),
+        space.getRootFolder());
+    thumbnailService.generate(artifact.getContentHash());
+
+    ResponseEntity list = thumbnailController.getThumbnail(artifact.getId(), "list", null, auth);
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream((byte[]) list.getBody()));
+    assertEquals("should have rendition width", 64, image.getWidth());
+    assertEquals("should have rendition height", 64, image.getHeight());
+    assertNotNull("should have etag", list.getHeaders().getETag());
+
+    ResponseEntity cached = thumbnailController.getThumbnail(artifact.getId(), "LIST", null, auth);
+    assertEquals("should return same rendition", list.getHeaders().getETag(),
+        cached.getHeaders().getETag());
+    ResponseEntity defaultRendition = thumbnailController
+        .getThumbnail(artifact.getId(), null, null, auth);
+    assertNotEquals("should return other rendition", list.getHeaders().getETag(),
+        defaultRendition.getHeaders().getETag());
+    assertEquals("should reject unknown rendition", HttpStatus.BAD_REQUEST,
+        thumbnailController.getThumbnail(artifact.getId(), "huge", null, auth).getStatusCode());
+  }
+
+  @Test
+  public void shouldReturnThumbnailsInOneResponse() throws IOException {
+    Artifact first = artifactService.create("first.txt", user.getName(),
+        new MockMultipartFile("first.txt", "first.txt", "text/plain", "first".getBytes()),
+        space.getRootFolder());
+    Artifact second = artifactService.create("second.txt", user.getName(),
+        new MockMultipartFile("second.txt", "second.txt", "text/plain", "second".getBytes()),
+        space.getRootFolder());
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    thumbnailController.getThumbnails(List.of(second.getId(), -1L, first.getId()), null, auth,
+        response);
+    assertTrue("should be multipart",
+        response.getContentType().startsWith("multipart/mixed; boundary="));
+    String body = response.getContentAsString();
+    int secondPart = body.indexOf("Content-ID: <" + second.getId() + ">");
+    int firstPart = body.indexOf("Content-ID: <" + first.getId() + ">");
+    assertTrue("should keep order of ids", secondPart >= 0 && secondPart < firstPart);
+    assertFalse("should leave out missing artifact", body.contains("Content-ID: <-1>"));
+  }
+}
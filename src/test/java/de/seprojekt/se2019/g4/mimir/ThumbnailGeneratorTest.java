@@ -0,0 +1,150 @@
+package de.seprojekt.se2019.g4.mimir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import de.seprojekt.se2019.g4.mimir.content.thumbnail.ThumbnailGenerator;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.jcodec.api.SequenceEncoder;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+
+public class ThumbnailGeneratorTest {
+
+  private ThumbnailGenerator thumbnailGenerator = new ThumbnailGenerator(1000 * 1000,
+      1024 * 1024, 30000, 24, 30000);
+
+  @Test
+  public void shouldGenerateSubsampledThumbnail() throws IOException {
+    ByteArrayOutputStream image = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(1000, 900, BufferedImage.TYPE_INT_ARGB), "png", image);
+    InputStream thumbnail = thumbnailGenerator
+        .generateThumbnail(new ByteArrayInputStream(image.toByteArray()), MediaType.IMAGE_PNG)
+        .get();
+    BufferedImage thumbnailImage = ImageIO.read(thumbnail);
+    assertEquals("should have thumbnail width", 400, thumbnailImage.getWidth());
+    assertEquals("should have thumbnail height", 400, thumbnailImage.getHeight());
+  }
+
+  @Test
+  public void shouldRejectTooManyPixels() throws IOException {
+    ByteArrayOutputStream image = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(1001, 1000, BufferedImage.TYPE_INT_RGB), "jpg", image);
+    assertTrue("should reject image", thumbnailGenerator
+        .generateThumbnail(new ByteArrayInputStream(image.toByteArray()), MediaType.IMAGE_JPEG)
+        .isEmpty());
+  }
+
+  @Test
+  public void shouldEstimateMemoryFromImageHeader() throws IOException {
+    Path small = Files.createTempFile("thumbnail", ".png");
+    Path large = Files.createTempFile("thumbnail", ".png");
+    try {
+      ImageIO.write(new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB), "png", small.toFile());
+      ImageIO.write(new BufferedImage(2000, 300, BufferedImage.TYPE_INT_RGB), "png",
+          large.toFile());
+      assertTrue("should estimate more memory for larger image",
+          thumbnailGenerator.estimateMemory(large, MediaType.IMAGE_PNG, 400)
+              > thumbnailGenerator.estimateMemory(small, MediaType.IMAGE_PNG, 400));
+    } finally {
+      Files.delete(small);
+      Files.delete(large);
+    }
+  }
+
+  @Test
+  public void shouldEstimateMemoryFromVideoHeader() throws IOException {
+    Path small = Files.createTempFile("thumbnail", ".mp4");
+    Path large = Files.createTempFile("thumbnail", ".mp4");
+    try {
+      writeVideo(small, 64, 48);
+      writeVideo(large, 640, 480);
+      long smallEstimation = thumbnailGenerator
+          .estimateMemory(small, MediaType.valueOf("video/mp4"), 400);
+      long largeEstimation = thumbnailGenerator
+          .estimateMemory(large, MediaType.valueOf("video/mp4"), 400);
+      assertEquals("should estimate memory for pixels of larger video",
+          (640 * 480 - 64 * 48) * 16, largeEstimation - smallEstimation);
+    } finally {
+      Files.delete(small);
+      Files.delete(large);
+    }
+  }
+
+  @Test
+  public void shouldGenerateThumbnailForPdf() throws IOException {
+    ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+    try (PDDocument document = new PDDocument()) {
+      document.addPage(new PDPage(PDRectangle.A4));
+      document.save(pdf);
+    }
+    InputStream thumbnail = thumbnailGenerator
+        .generateThumbnail(new ByteArrayInputStream(pdf.toByteArray()), MediaType.APPLICATION_PDF)
+        .get();
+    BufferedImage thumbnailImage = ImageIO.read(thumbnail);
+    assertEquals("should have thumbnail width", 400, thumbnailImage.getWidth());
+    assertEquals("should have thumbnail height", 400, thumbnailImage.getHeight());
+  }
+
+  @Test
+  public void shouldLimitPixelsOfRenderedPdfPage() throws IOException {
+    ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+    try (PDDocument document = new PDDocument()) {
+      document.addPage(new PDPage(new PDRectangle(1, 10000)));
+      document.save(pdf);
+    }
+    InputStream thumbnail = thumbnailGenerator
+        .generateThumbnail(new ByteArrayInputStream(pdf.toByteArray()), MediaType.APPLICATION_PDF)
+        .get();
+    BufferedImage thumbnailImage = ImageIO.read(thumbnail);
+    assertEquals("should have thumbnail width", 400, thumbnailImage.getWidth());
+  }
+
+  @Test
+  public void shouldRejectPdfPageWithoutWidth() throws IOException {
+    ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+    try (PDDocument document = new PDDocument()) {
+      document.addPage(new PDPage(new PDRectangle(0, 500)));
+      document.save(pdf);
+    }
+    assertTrue("should reject pdf", thumbnailGenerator
+        .generateThumbnail(new ByteArrayInputStream(pdf.toByteArray()), MediaType.APPLICATION_PDF)
+        .isEmpty());
+  }
+
+  @Test
+  public void shouldGenerateThumbnailForVideoFile() throws IOException {
+    Path video = Files.createTempFile("thumbnail", ".mp4");
+    try {
+      writeVideo(video, 64, 48);
+      InputStream thumbnail = thumbnailGenerator
+          .generateThumbnail(video, MediaType.valueOf("video/mp4"), 400)
+          .get();
+      BufferedImage thumbnailImage = ImageIO.read(thumbnail);
+      assertEquals("should have thumbnail width", 400, thumbnailImage.getWidth());
+      assertEquals("should have thumbnail height", 400, thumbnailImage.getHeight());
+    } finally {
+      Files.delete(video);
+    }
+  }
+
+  private static void writeVideo(Path video, int width, int height) throws IOException {
+    SequenceEncoder encoder = SequenceEncoder.create25Fps(video.toFile());
+    for (int i = 0; i < 10; i++) {
+      encoder.encodeNativeFrame(Picture.create(width, height, ColorSpace.RGB));
+    }
+    encoder.finish();
+  }
+}
@@ -0,0 +1,123 @@
+package de.seprojekt.se2019.g4.mimir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import de.seprojekt.se2019.g4.mimir.content.artifact.Artifact;
+import de.seprojekt.se2019.g4.mimir.content.artifact.ArtifactService;
+import de.seprojekt.se2019.g4.mimir.content.space.Space;
+import de.seprojekt.se2019.g4.mimir.content.upload.UploadController;
+import de.seprojekt.se2019.g4.mimir.content.upload.UploadService;
+import de.seprojekt.se2019.g4.mimir.content.upload.UploadSession;
+import de.seprojekt.se2019.g4.mimir.security.JwtPrincipal;
+import de.seprojekt.se2019.g4.mimir.security.user.User;
+import de.seprojekt.se2019.g4.mimir.security.user.UserService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import javax.transaction.Transactional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class UploadControllerTest {
+
+  @Autowired
+  UploadController uploadController;
+
+  @Autowired
+  ArtifactService artifactService;
+
+  @Autowired
+  UploadService uploadService;
+
+  @Autowired
+  UserService userService;
+
+  private UsernamePasswordAuthenticationToken auth;
+  private Space space;
+
+  @Before
+  public void init() {
+    User user = userService.findByName("thellmann").get();
+    space = user.getSpaces().get(0);
+    auth = new UsernamePasswordAuthenticationToken(new JwtPrincipal("thellmann"), "");
+  }
+
+  @Test
+  public void shouldUploadInChunks() throws IOException, NoSuchAlgorithmException {
+    UploadSession uploadSession = uploadController.createUploadSession(
+        space.getRootFolder().getId(), "chunks.txt", "text/plain", 10L, 4, auth).getBody();
+    String id = uploadSession.getId();
+    assertEquals("should use requested chunk size", Integer.valueOf(4),
+        uploadSession.getChunkSize());
+
+    assertEquals("should accept first chunk", 200,
+        uploadChunk(id, 0, "0123", null).getStatusCodeValue());
+    assertEquals("should reject missing chunk", 409,
+        uploadChunk(id, 2, "89", null).getStatusCodeValue());
+    assertEquals("should reject too short chunk", 400,
+        uploadChunk(id, 1, "45", null).getStatusCodeValue());
+    assertEquals("should reject wrong hash", 400,
+        uploadChunk(id, 1, "4567", sha256("0000")).getStatusCodeValue());
+    assertEquals("should resume after first chunk", Long.valueOf(4),
+        uploadController.getUploadSession(id, auth).getBody().getReceivedLength());
+    assertEquals("should ignore repeated chunk", Long.valueOf(4),
+        uploadChunk(id, 0, "0123", null).getBody().getReceivedLength());
+
+    uploadChunk(id, 1, "4567", sha256("4567"));
+    assertEquals("should reject incomplete upload", 409,
+        uploadController.completeUploadSession(id, auth).getStatusCodeValue());
+    assertTrue("should be complete", uploadChunk(id, 2, "89", null).getBody().isComplete());
+
+    Artifact artifact = uploadController.completeUploadSession(id, auth).getBody();
+    assertEquals("should have name", "chunks.txt", artifact.getName());
+    assertEquals("should have content length", Long.valueOf(10), artifact.getContentLength());
+    try (InputStream content = artifactService.findArtifactContent(artifact)) {
+      assertArrayEquals("should have content", "0123456789".getBytes(), content.readAllBytes());
+    }
+  }
+
+  @Test
+  public void shouldExpireSessionsWithoutActivity() throws IOException {
+    UploadSession uploadSession = uploadController.createUploadSession(
+        space.getRootFolder().getId(), "expired.txt", "text/plain", 10L, 4, auth).getBody();
+    String id = uploadSession.getId();
+    uploadChunk(id, 0, "0123", null);
+    UploadSession current = uploadService.findById(id).get();
+    current.setCreationDate(Instant.now().minus(2, ChronoUnit.DAYS));
+    uploadService.deleteExpiredSessions();
+    assertTrue("should keep session with recent chunk", uploadService.findById(id).isPresent());
+
+    current.setLastActivityDate(Instant.now().minus(2, ChronoUnit.DAYS));
+    uploadService.deleteExpiredSessions();
+    assertFalse("should delete session without activity", uploadService.findById(id).isPresent());
+  }
+
+  private ResponseEntity<UploadSession> uploadChunk(String id, int chunkNumber, String content,
+      String digest) throws IOException {
+    MockHttpServletRequest request = new MockHttpServletRequest("PUT", "");
+    request.setContent(content.getBytes());
+    return uploadController.uploadChunk(id, chunkNumber, digest, request, auth);
+  }
+
+  private static String sha256(String content) throws NoSuchAlgorithmException {
+    byte[] hash = MessageDigest.getInstance("SHA-256").digest(content.getBytes());
+    return "sha-256=" + Base64.getEncoder().encodeToString(hash);
+  }
+}